@@ -4,11 +4,14 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import ru.netology.entities.User;
 import ru.netology.repositories.UserRepository;
 
+//@EnableScheduling - для фоновой уборки брошенных загрузок (UploadSessionCleaner)
 @SpringBootApplication
+@EnableScheduling
 public class CloudStorageApplication {
 
     public static void main(String[] args) {
@@ -33,6 +36,11 @@ public class CloudStorageApplication {
      */
     @Bean
     CommandLineRunner commandLineRunner(UserRepository users, PasswordEncoder encoder) {
-        return args -> users.save(new User("user", encoder.encode("password"), "USER"));
+        //пользователь создается один раз: повторный запуск на той же базе не заводит дубликат
+        return args -> {
+            if (users.findByUsername("user").isEmpty()) {
+                users.save(new User("user", encoder.encode("password"), "USER"));
+            }
+        };
     }
 }
\ No newline at end of file
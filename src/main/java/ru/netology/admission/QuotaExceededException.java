@@ -0,0 +1,12 @@
+package ru.netology.admission;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+//Загрузка не помещается в квоту пользователя. Ответ 507: файл не сохранен, пока пользователь не освободит место
+public class QuotaExceededException extends ResponseStatusException {
+
+    public QuotaExceededException(long quota) {
+        super(HttpStatus.INSUFFICIENT_STORAGE, "Storage quota of " + quota + " bytes exceeded");
+    }
+}
@@ -0,0 +1,113 @@
+package ru.netology.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.model.StorageUsage;
+import ru.netology.repositories.FileRepository;
+import ru.netology.repositories.UserRepository;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Квота на объем файлов пользователя.
+ * Занятый объем хранится в users.used_bytes и меняется тем же update, что и версия списка файлов,
+ * в транзакции загрузки или удаления (UserRepository.recordFilesChange). Поэтому проверка квоты - чтение одной строки
+ * пользователя, а не SUM по files, и выполняется до того, как содержимое записано в хранилище.
+ * Загрузки, уже проверенные, но еще не закоммиченные, учитываются в памяти по владельцу:
+ * иначе несколько параллельных загрузок прошли бы проверку по одному и тому же used_bytes и вместе превысили квоту.
+ * Отказы видны в метрике storage.quota.rejected.
+ */
+@Component
+public class StorageQuota {
+    private final UserRepository userRepository;
+    private final FileRepository fileRepository;
+    private final TransactionTemplate countTransaction;
+    private final long defaultQuota;
+    private final Counter rejected;
+    //байты проверенных загрузок, которых еще нет в used_bytes
+    private final ConcurrentMap<String, Long> reserved = new ConcurrentHashMap<>();
+
+    public StorageQuota(UserRepository userRepository, FileRepository fileRepository, PlatformTransactionManager transactionManager,
+                        @Value("${storage.quota.defaultBytes}") long defaultQuota, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.fileRepository = fileRepository;
+        //used_bytes считается в отдельной короткой транзакции: строка пользователя не остается заблокированной,
+        //пока идет сама загрузка
+        this.countTransaction = new TransactionTemplate(transactionManager);
+        this.countTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.defaultQuota = defaultQuota;
+        this.rejected = Counter.builder("storage.quota.rejected").register(meterRegistry);
+    }
+
+    //Проверяет, что загрузка bytes помещается в квоту, и держит эти байты за владельцем до конца текущей транзакции:
+    //к ее коммиту они уже учтены в used_bytes. Без транзакции это только проверка.
+    //Бросает QuotaExceededException, если загрузка не помещается
+    public void reserve(String owner, long bytes) {
+        long charge = Math.max(bytes, 0);
+        //сначала резерв, потом used_bytes: загрузка, закоммиченная между этими чтениями, будет посчитана дважды
+        //(в резерве и в базе) и даст ложный отказ в редком случае, но не будет пропущена
+        long pending = reserved.merge(owner, charge, Long::sum);
+        try {
+            checkPending(owner, pending);
+        } catch (RuntimeException ex) {
+            release(owner, charge);
+            throw ex;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    release(owner, charge);
+                }
+            });
+        } else {
+            release(owner, charge);
+        }
+    }
+
+    //Только проверка, без резерва: для загрузки частями, которая сохранится позже
+    public void check(String owner, long bytes) {
+        checkPending(owner, reserved.getOrDefault(owner, 0L) + Math.max(bytes, 0));
+    }
+
+    //pending - байты загрузок владельца, которых еще нет в used_bytes, включая проверяемую
+    private void checkPending(String owner, long pending) {
+        StorageUsage usage = userRepository.findUsage(owner).orElse(new StorageUsage(0L, null));
+        long used = usage.getUsedBytes() != null ? usage.getUsedBytes() : countUsedBytes(owner);
+        long quota = usage.getQuotaBytes() != null ? usage.getQuotaBytes() : defaultQuota;
+        if (used + pending > quota) {
+            rejected.increment();
+            throw new QuotaExceededException(quota);
+        }
+    }
+
+    //Один раз для пользователя без used_bytes: строка блокируется до подсчета, поэтому загрузка, закоммиченная раньше,
+    //попадет в сумму, а закоммиченная позже дождется блокировки и прибавит свой размер к уже посчитанному значению
+    private long countUsedBytes(String owner) {
+        Long used = countTransaction.execute(status -> {
+            StorageUsage locked = userRepository.findUsageForUpdate(owner).orElse(null);
+            if (locked == null) {
+                return 0L;
+            }
+            if (locked.getUsedBytes() != null) {
+                return locked.getUsedBytes();
+            }
+            long counted = fileRepository.sumSizeByOwner(owner);
+            userRepository.setUsedBytes(owner, counted);
+            return counted;
+        });
+        return used != null ? used : 0L;
+    }
+
+    private void release(String owner, long charge) {
+        reserved.computeIfPresent(owner, (key, value) -> value == charge ? null : value - charge);
+    }
+}
@@ -0,0 +1,133 @@
+package ru.netology.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Допуск передач по объему: сколько байт загрузок и скачиваний идет одновременно всего (globalBudget)
+ * и у одного пользователя (userBudget), и сколько передач идет одновременно (maxTransfers).
+ * maxTransfers равен числу потоков transferExecutor: каждой допущенной передаче сразу достается поток,
+ * и она не ждет в очереди пула, занимая бюджет.
+ * Передача, которая не помещается в бюджет, ждет освобождения не дольше maxWait, после чего получает 503 с Retry-After.
+ * Так перегрузка превращается в отказы с подсказкой повторить позже, а не в нехватку памяти, диска и соединений с базой.
+ * Занятый объем виден в метрике transfer.inflight, отказы - в transfer.rejected.
+ */
+@Component
+public class TransferBudget {
+    private final long globalBudget;
+    private final long userBudget;
+    private final int maxTransfers;
+    private final long maxWaitNanos;
+    private final Duration retryAfter;
+    private final Counter rejected;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Map<String, Long> userInFlight = new HashMap<>();
+    private long inFlight;
+    private int transfers;
+
+    public TransferBudget(@Value("${transfer.globalBudget}") long globalBudget, @Value("${transfer.userBudget}") long userBudget,
+                          @Value("${transfer.threads}") int maxTransfers, @Value("${transfer.maxWait}") Duration maxWait, @Value("${transfer.retryAfter}") Duration retryAfter,
+                          MeterRegistry meterRegistry) {
+        this.globalBudget = globalBudget;
+        this.userBudget = userBudget;
+        this.maxTransfers = maxTransfers;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.retryAfter = retryAfter;
+        this.rejected = Counter.builder("transfer.rejected").register(meterRegistry);
+        Gauge.builder("transfer.inflight", this, TransferBudget::getInFlight)
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+    }
+
+    //Занимает bytes из бюджетов владельца и общего. Разрешение нужно закрыть, когда передача закончится.
+    //Передача больше бюджета занимает весь бюджет: иначе она не прошла бы никогда
+    public Permit acquire(String owner, long bytes) {
+        long charge = Math.min(Math.max(bytes, 0), Math.min(globalBudget, userBudget));
+        long deadline = System.nanoTime() + maxWaitNanos;
+        lock.lock();
+        try {
+            while (transfers >= maxTransfers || inFlight + charge > globalBudget
+                    || userInFlight.getOrDefault(owner, 0L) + charge > userBudget) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejected.increment();
+                    throw new TransferRejectedException(retryAfter);
+                }
+                try {
+                    released.awaitNanos(remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    rejected.increment();
+                    throw new TransferRejectedException(retryAfter);
+                }
+            }
+            inFlight += charge;
+            transfers++;
+            userInFlight.merge(owner, charge, Long::sum);
+        } finally {
+            lock.unlock();
+        }
+        return new Permit(owner, charge);
+    }
+
+    public long getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getInFlight(String owner) {
+        lock.lock();
+        try {
+            return userInFlight.getOrDefault(owner, 0L);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(String owner, long charge) {
+        lock.lock();
+        try {
+            inFlight -= charge;
+            transfers--;
+            userInFlight.computeIfPresent(owner, (key, value) -> value == charge ? null : value - charge);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Занятая передачей часть бюджета. Повторное закрытие ничего не делает
+    public class Permit implements AutoCloseable {
+        private final String owner;
+        private final long charge;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(String owner, long charge) {
+            this.owner = owner;
+            this.charge = charge;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(owner, charge);
+            }
+        }
+    }
+}
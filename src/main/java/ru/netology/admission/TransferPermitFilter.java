@@ -0,0 +1,64 @@
+package ru.netology.admission;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+//Гарантирует, что разрешение скачивания из TransferBudget будет закрыто, даже если тело ответа так и не начнет писаться:
+//клиент ушел до запуска задачи, пул отказал, таймаут или исключение после того, как разрешение получено.
+//Контроллер кладет разрешение в атрибут запроса PERMIT_ATTRIBUTE. Если асинхронная обработка не началась,
+//тело уже не запустится, и разрешение закрывается сразу, иначе - по окончании асинхронной обработки.
+//Тело закрывает его и само, когда допишет ответ; повторное закрытие ничего не делает
+@Component
+public class TransferPermitFilter extends OncePerRequestFilter {
+    public static final String PERMIT_ATTRIBUTE = TransferPermitFilter.class.getName() + ".permit";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            Object permit = request.getAttribute(PERMIT_ATTRIBUTE);
+            if (permit instanceof TransferBudget.Permit) {
+                if (request.isAsyncStarted()) {
+                    request.getAsyncContext().addListener(new ReleaseListener((TransferBudget.Permit) permit));
+                } else {
+                    ((TransferBudget.Permit) permit).close();
+                }
+            }
+        }
+    }
+
+    //onComplete вызывается ровно один раз, в том числе после ошибки, таймаута и обрыва соединения
+    private static class ReleaseListener implements AsyncListener {
+        private final TransferBudget.Permit permit;
+
+        ReleaseListener(TransferBudget.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            permit.close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ru.netology.admission;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+
+//Передача не допущена: бюджет занят дольше, чем разрешено ждать. Ответ 503 с Retry-After в секундах
+public class TransferRejectedException extends ResponseStatusException {
+    private final Duration retryAfter;
+
+    public TransferRejectedException(Duration retryAfter) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "Too many transfers in progress");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    @Override
+    public HttpHeaders getResponseHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter.toSeconds()));
+        return headers;
+    }
+}
@@ -0,0 +1,94 @@
+package ru.netology.admission;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.util.UrlPathHelper;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+//Допуск загрузок (POST /file, POST /files и PUT /upload/{id}/{index}) по Content-Length до того, как тело запроса прочитано:
+//multipart разбирается еще до контроллера, поэтому отказывать нужно здесь, а не после приема всего файла.
+//Стоит после цепочки Spring Security (порядок по умолчанию), так что пользователь уже известен.
+//Загрузка без Content-Length занимает весь бюджет пользователя
+@Component
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+    private final TransferBudget transferBudget;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper pathHelper = new UrlPathHelper();
+
+    public UploadAdmissionFilter(TransferBudget transferBudget) {
+        this.transferBudget = transferBudget;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = pathHelper.getPathWithinApplication(request);
+        return !(request.getMethod().equals("POST") && (path.equals("/file") || path.equals("/files"))
+                || request.getMethod().equals("PUT") && pathMatcher.match("/upload/*/*", path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        long length = request.getContentLengthLong();
+        TransferBudget.Permit permit;
+        try {
+            permit = transferBudget.acquire(authentication.getName(), length < 0 ? Long.MAX_VALUE : length);
+        } catch (TransferRejectedException ex) {
+            ex.getResponseHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            response.sendError(ex.getRawStatusCode(), ex.getReason());
+            return;
+        }
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            async = request.isAsyncStarted();
+        } finally {
+            //загрузка продолжается в transferExecutor: бюджет освобождается по окончании асинхронной обработки
+            if (async) {
+                request.getAsyncContext().addListener(new ReleaseListener(permit));
+            } else {
+                permit.close();
+            }
+        }
+    }
+
+    //onComplete вызывается ровно один раз, в том числе после ошибки и таймаута
+    private static class ReleaseListener implements AsyncListener {
+        private final TransferBudget.Permit permit;
+
+        ReleaseListener(TransferBudget.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            permit.close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
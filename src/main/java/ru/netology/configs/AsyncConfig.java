@@ -0,0 +1,68 @@
+package ru.netology.configs;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.netology.admission.TransferRejectedException;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+
+//Передачи выполняются в отдельном пуле transferExecutor, а не в потоках Tomcat:
+//скачивание (StreamingResponseBody) и загрузка (контроллер возвращает Callable) отпускают поток Tomcat сразу,
+//так что медленные клиенты занимают потоки этого пула, а /login и /list обслуживаются без очереди.
+//TransferBudget допускает не больше transfer.threads передач одновременно, поэтому допущенная передача сразу получает поток.
+//Очередь пула ограничена: запрос, которому не хватило места, получает 503 с Retry-After, как и передача сверх бюджета.
+//Загрузка пула видна в метриках executor.*{name=transferExecutor}
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+    private final int threads;
+    private final int queueCapacity;
+    private final Duration retryAfter;
+
+    public AsyncConfig(@Value("${transfer.threads}") int threads, @Value("${transfer.queueCapacity}") int queueCapacity,
+                       @Value("${transfer.retryAfter}") Duration retryAfter) {
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.retryAfter = retryAfter;
+    }
+
+    @Bean
+    ThreadPoolTaskExecutor transferExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        //потоки без работы завершаются: пул на threads потоков не держит их все постоянно
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("transfer-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        ThreadPoolTaskExecutor executor = transferExecutor();
+        configurer.setTaskExecutor(executor);
+        configurer.registerCallableInterceptors(rejectedTransfers(executor));
+    }
+
+    //Пул заполнен (все потоки заняты, очередь полна): запрос получает 503 с Retry-After еще до начала асинхронной обработки.
+    //Отказ самого пула после начала обработки Spring MVC не превращает в ответ, поэтому места проверяются заранее
+    CallableProcessingInterceptor rejectedTransfers(ThreadPoolTaskExecutor executor) {
+        return new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                ThreadPoolExecutor pool = executor.getThreadPoolExecutor();
+                if (pool.getActiveCount() >= threads && pool.getQueue().remainingCapacity() == 0) {
+                    throw new TransferRejectedException(retryAfter);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package ru.netology.configs;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+//TimedAspect включает аннотацию @Timed на бинах (StorageService, AuthService, UserDetailsServiceImpl).
+//Перцентили и гистограммы для таймеров задаются в application.yaml: management.metrics.distribution
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
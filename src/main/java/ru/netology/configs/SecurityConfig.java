@@ -1,5 +1,6 @@
 package ru.netology.configs;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -15,7 +16,10 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import ru.netology.controllers.StorageController;
+import ru.netology.metrics.TimedPasswordEncoder;
 import ru.netology.security.JwtEntryPoint;
+import ru.netology.security.JwtLogoutHandler;
 import ru.netology.security.JwtTokenFilter;
 import ru.netology.services.UserDetailsServiceImpl;
 
@@ -35,11 +39,14 @@ public class SecurityConfig {
     private final UserDetailsServiceImpl userDetailsService;
     private final JwtEntryPoint jwtEntryPoint;
     public final JwtTokenFilter jwtTokenFilter;
+    private final JwtLogoutHandler jwtLogoutHandler;
 
-    public SecurityConfig(UserDetailsServiceImpl userDetailsService, JwtEntryPoint jwtEntryPoint, JwtTokenFilter jwtTokenFilter) {
+    public SecurityConfig(UserDetailsServiceImpl userDetailsService, JwtEntryPoint jwtEntryPoint, JwtTokenFilter jwtTokenFilter,
+                          JwtLogoutHandler jwtLogoutHandler) {
         this.userDetailsService = userDetailsService;
         this.jwtEntryPoint = jwtEntryPoint;
         this.jwtTokenFilter = jwtTokenFilter;
+        this.jwtLogoutHandler = jwtLogoutHandler;
     }
 
     /**
@@ -47,8 +54,9 @@ public class SecurityConfig {
      * Сервисный интерфейс для шифрования паролей. Предпочтительной реализацией является BCryptPasswordEncoder.
      */
     @Bean
-    PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    PasswordEncoder passwordEncoder(MeterRegistry meterRegistry) {
+        //время проверки пароля видно в метрике auth.password
+        return new TimedPasswordEncoder(new BCryptPasswordEncoder(), meterRegistry);
     }
 
     /**
@@ -61,10 +69,10 @@ public class SecurityConfig {
      * Реализация AuthenticationProvider, которая извлекает данные пользователя из файла UserDetailsService
      */
     @Bean
-    public DaoAuthenticationProvider authenticationProvider() {
+    public DaoAuthenticationProvider authenticationProvider(PasswordEncoder passwordEncoder) {
         DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider();
         authProvider.setUserDetailsService(userDetailsService);
-        authProvider.setPasswordEncoder(passwordEncoder());
+        authProvider.setPasswordEncoder(passwordEncoder);
         return authProvider;
     }
 
@@ -92,7 +100,7 @@ public class SecurityConfig {
      * но его можно ограничить с помощью #requestMatcher(RequestMatcher)других подобных методов
      */
     @Bean
-    SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    SecurityFilterChain securityFilterChain(HttpSecurity http, DaoAuthenticationProvider authenticationProvider) throws Exception {
         //cors совместное использование ресурсов между разными источниками
         //csrf подделка межсайтовых запросов
         //отключаем эти два фильтра
@@ -102,16 +110,20 @@ public class SecurityConfig {
         // либо Filter уже добавлены с помощью HttpSecurityBuilder.addFilterAfter(Filter, Class)или HttpSecurityBuilder.addFilterBefore(Filter, Class).
         http.addFilterBefore(jwtTokenFilter, UsernamePasswordAuthenticationFilter.class);
         //authenticationProvider() позволяет добавить дополнительный AuthenticationProvider для использования
-        http.authenticationProvider(authenticationProvider());
+        http.authenticationProvider(authenticationProvider);
         http
                 //authorizeRequests() Позволяет ограничить доступ на основе HttpServletRequest используемых
                 //RequestMatcher реализаций (т. е. с помощью шаблонов URL-адресов). Устарело.
                 //Будет удален в  7.0. Вместо этого используйте authorizeHttpRequests()
                 .authorizeRequests().mvcMatchers("/login").permitAll()
+                //health и метрики для Prometheus читаются без токена
+                .mvcMatchers("/actuator/health", "/actuator/prometheus").permitAll()
                 .anyRequest().authenticated()
 
                 .and()
                 .logout()
+                //отзываем токен, иначе после logout им можно было бы пользоваться до exp
+                .addLogoutHandler(jwtLogoutHandler)
                 .deleteCookies("JSESSIONID")
                 .clearAuthentication(true)
 
@@ -167,6 +179,7 @@ public class SecurityConfig {
         //etAllowCredentials() поддерживаются ли учетные данные пользователя.
         //По умолчанию это значение не установлено (т. е. учетные данные пользователя не поддерживаются).
         configuration.setAllowCredentials(true);
+        configuration.setExposedHeaders(List.of(StorageController.NEXT_CURSOR_HEADER));
         //UrlBasedCorsConfigurationSource: CorsConfigurationSource, который использует шаблоны URL-адресов для выбора CorsConfiguration для запроса.
         //Сопоставление с образцом можно выполнить с помощью PathMatcher или предварительно проанализированных PathPatterns.
         //Синтаксис во многом такой же, последний более адаптирован для использования в Интернете и более эффективен.
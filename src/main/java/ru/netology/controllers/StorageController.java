@@ -1,69 +1,213 @@
 package ru.netology.controllers;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.netology.admission.TransferBudget;
+import ru.netology.admission.TransferPermitFilter;
 import ru.netology.dto.FileResponse;
 import ru.netology.entities.File;
+import ru.netology.entities.StoredBlob;
+import ru.netology.model.FileCursor;
+import ru.netology.model.SecurityUser;
 import ru.netology.services.StorageService;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/")
 public class StorageController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    //клиент может хранить ответ, но перед использованием сверяет ETag с сервером (без этого Spring Security ставит no-store)
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
     private final StorageService storageService;
+    private final TransferBudget transferBudget;
+    //сколько файлов самое большее попадает в один ZIP-архив
+    private final int maxArchiveFiles;
 
-    public StorageController(StorageService storageService) {
+    public StorageController(StorageService storageService, TransferBudget transferBudget,
+                             @Value("${storage.archive.maxFiles}") int maxArchiveFiles) {
         this.storageService = storageService;
+        this.transferBudget = transferBudget;
+        this.maxArchiveFiles = maxArchiveFiles;
     }
 
     @GetMapping("/list")
-    //@RequestHeader иногда вам требуется получить в качестве параметров вашего метода в контроллере непосредственно заголовки HTTP-запроса.
-    public ResponseEntity<List<FileResponse>> getAllFiles(@RequestHeader("auth-token") String authToken,
-                                                          @RequestParam("limit") int limit) {
-        return ResponseEntity.ok(storageService.getFiles(authToken, limit));
+    //@AuthenticationPrincipal подставляет пользователя, которого JwtTokenFilter положил в SecurityContext после проверки токена,
+    //поэтому повторно разбирать заголовок auth-token не нужно
+    public ResponseEntity<List<FileResponse>> getAllFiles(@AuthenticationPrincipal SecurityUser user,
+                                                          @RequestParam("limit") int limit,
+                                                          @RequestParam(value = "cursor", required = false) String cursor,
+                                                          @RequestHeader HttpHeaders requestHeaders) {
+        //версия читается до списка: если список изменится между запросами, клиент получит более старую версию
+        //и просто перезапросит список, но устаревший список никогда не получит новую версию
+        String etag = "\"v" + storageService.getFilesVersion(user.getUsername()) + "\"";
+        if (notModified(requestHeaders, etag)) {
+            return notModifiedResponse(etag);
+        }
+        List<FileResponse> files = storageService.getFiles(user.getUsername(), limit, parseCursor(cursor));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag).cacheControl(REVALIDATE);
+        //страница заполнена полностью - возможно, есть следующая: отдаем курсор на последний элемент в заголовке,
+        //тело ответа остается прежним списком
+        if (limit > 0 && files.size() == limit) {
+            FileResponse last = files.get(files.size() - 1);
+            response.header(NEXT_CURSOR_HEADER, new FileCursor(last.getFilename(), last.getId()).encode());
+        }
+        return response.body(files);
+    }
+
+    //Поиск файлов по имени: содержит query, а при prefix=true начинается с query. Регистр не учитывается
+    @GetMapping("/search")
+    public ResponseEntity<List<FileResponse>> searchFiles(@AuthenticationPrincipal SecurityUser user,
+                                                          @RequestParam("query") String query,
+                                                          @RequestParam("limit") int limit,
+                                                          @RequestParam(value = "prefix", defaultValue = "false") boolean prefix) {
+        if (query.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Query must not be empty");
+        }
+        return ResponseEntity.ok(storageService.searchFiles(user.getUsername(), query, prefix, limit));
     }
 
     //ResponseEntity<?>, где под ? понимается любой Java объект.
     //Конструктор ResponseEntity позволяет перегружать этот объект, добавляя в него не только наш возвращаемый тип,
     //но и статус, чтобы фронтенд мог понимать, что именно пошло не так.
     @PostMapping("/file")
-    public ResponseEntity<?> uploadFile(@RequestHeader("auth-token") String authToken,
-                                        @RequestParam("filename") String filename,
-                                        @RequestBody MultipartFile file) throws IOException {
+    public Callable<ResponseEntity<?>> uploadFile(@AuthenticationPrincipal SecurityUser user,
+                                                  @RequestParam("filename") String filename,
+                                                  @RequestBody MultipartFile file) {
         //MultipartFile Представление выгруженного файла, полученного в многопортовом запросе.
         //Содержимое файла хранится в памяти или временно на диске.
         //В любом случае пользователь отвечает за копирование содержимого файла в сеансовый уровень или постоянное хранилище,
         //как и при необходимости. Временное хранилище будет очищено по окончании обработки запроса.
-        storageService.uploadFile(authToken, filename, file);
-        return ResponseEntity.ok(HttpStatus.OK);
+        //Сохранение (хэш, сжатие, запись в хранилище) идет в пуле transferExecutor, поток Tomcat освобождается сразу.
+        //Временный файл multipart живет до конца асинхронной обработки
+        return () -> {
+            storageService.uploadFile(user.getUsername(), filename, file);
+            return ResponseEntity.ok(HttpStatus.OK);
+        };
+    }
+
+    //Загрузка нескольких файлов одним запросом: части files, имя каждого файла берется из его части.
+    //Все файлы сохраняются одной транзакцией - либо все, либо ни одного
+    @PostMapping("/files")
+    public Callable<ResponseEntity<?>> uploadFiles(@AuthenticationPrincipal SecurityUser user,
+                                                   @RequestParam("files") List<MultipartFile> files) {
+        for (MultipartFile file : files) {
+            if (!StringUtils.hasText(file.getOriginalFilename())) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Every file needs a filename");
+            }
+        }
+        return () -> {
+            storageService.uploadFiles(user.getUsername(), files);
+            return ResponseEntity.ok(HttpStatus.OK);
+        };
     }
 
     @PutMapping("/file")
-    public ResponseEntity<?> renameFile(@RequestHeader("auth-token") String authToken,
+    public ResponseEntity<?> renameFile(@AuthenticationPrincipal SecurityUser user,
                                         @RequestParam("filename") String filename,
                                         @RequestBody Map<String, String> fileNameRequest) {
-        storageService.renameFile(authToken, filename, fileNameRequest.get("filename"));
+        storageService.renameFile(user.getUsername(), filename, fileNameRequest.get("filename"));
         return ResponseEntity.ok(HttpStatus.OK);
     }
 
     @DeleteMapping("/file")
-    public ResponseEntity<?> deleteFile(@RequestHeader("auth-token") String authToken,
-                                        @RequestParam("filename") String filename) {
-        storageService.deleteFile(authToken, filename);
+    public ResponseEntity<?> deleteFile(@AuthenticationPrincipal SecurityUser user,
+                                        @RequestParam("filename") String filename) throws IOException {
+        storageService.deleteFile(user.getUsername(), filename);
+        return ResponseEntity.ok(HttpStatus.OK);
+    }
+
+    //Массовое удаление: либо перечисленные файлы (параметр filename повторяется), либо все файлы с префиксом prefix
+    @DeleteMapping("/files")
+    public ResponseEntity<?> deleteFiles(@AuthenticationPrincipal SecurityUser user,
+                                         @RequestParam(value = "filename", required = false) List<String> filenames,
+                                         @RequestParam(value = "prefix", required = false) String prefix) throws IOException {
+        if ((filenames == null) == (prefix == null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either filename or prefix is required");
+        }
+        if (prefix != null) {
+            //пустой префикс удалил бы все файлы пользователя
+            if (prefix.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Prefix must not be empty");
+            }
+            storageService.deleteFilesByPrefix(user.getUsername(), prefix);
+        } else {
+            storageService.deleteFiles(user.getUsername(), filenames);
+        }
+        return ResponseEntity.ok(HttpStatus.OK);
+    }
+
+    //Массовое переименование: у всех файлов с префиксом prefix он заменяется на prefix из тела запроса
+    @PutMapping("/files")
+    public ResponseEntity<?> renameFiles(@AuthenticationPrincipal SecurityUser user,
+                                         @RequestParam("prefix") String prefix,
+                                         @RequestBody Map<String, String> prefixRequest) {
+        String newPrefix = prefixRequest.get("prefix");
+        if (prefix.isEmpty() || newPrefix == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Both prefixes are required");
+        }
+        storageService.renameFilesByPrefix(user.getUsername(), prefix, newPrefix);
         return ResponseEntity.ok(HttpStatus.OK);
     }
 
     @GetMapping("/file")
-    public ResponseEntity<byte[]> downloadFile(@RequestHeader("auth-token") String authToken,
-                                               @RequestParam("filename") String filename) {
-        File file = storageService.downloadFile(authToken, filename);
+    public ResponseEntity<StreamingResponseBody> downloadFile(@AuthenticationPrincipal SecurityUser user,
+                                                              @RequestParam("filename") String filename,
+                                                              @RequestHeader HttpHeaders requestHeaders) throws IOException {
+        File file = storageService.downloadFile(user.getUsername(), filename);
+        //сжатое в хранилище содержимое уходит клиенту без распаковки, если он принимает его кодировку и просит файл целиком:
+        //Range отсчитывается в байтах исходного содержимого, поэтому диапазоны всегда отдаются распакованными
+        StoredBlob stored = null;
+        if (requestHeaders.containsKey(HttpHeaders.ACCEPT_ENCODING) && !requestHeaders.containsKey(HttpHeaders.RANGE)) {
+            stored = storageService.getStoredContent(file);
+            if (stored.getEncoding() == null || !acceptsEncoding(requestHeaders, stored.getEncoding())) {
+                stored = null;
+            }
+        }
+        //строгий ETag из хэша содержимого: по нему If-Range проверяет, что файл не изменился.
+        //У сжатого представления свой ETag, потому что байты ответа другие
+        String etag = stored == null
+                ? "\"" + file.getContentHash() + "\""
+                : "\"" + file.getContentHash() + "-" + stored.getEncoding() + "\"";
+        //у клиента уже есть эта версия: 304 без тела, содержимое из хранилища не читается
+        if (notModified(requestHeaders, etag)) {
+            return notModifiedResponse(etag);
+        }
+        if (stored != null) {
+            return downloadStored(user, file, stored, etag);
+        }
+        List<HttpRange> ranges;
+        try {
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException ex) {
+            return rangeNotSatisfiable(file);
+        }
+        //If-Range: отдаем часть, только если у клиента начало той же версии файла, иначе - файл целиком
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (!ranges.isEmpty() && (ifRange == null || ifRange.equals(etag))) {
+            return downloadRanges(user, file, etag, ranges);
+        }
         return ResponseEntity.ok()
                 //.contentType Задайте тип носителя тела, как указано в заголовке Content-Type.
                 //Парамы:
@@ -82,7 +226,7 @@ public class StorageController {
                 //тип носителя
                 //Броски:
                 //InvalidMediaTypeException - если значение типа носителя не может быть проанализировано
-                .contentType(MediaType.parseMediaType(file.getType()))
+                .contentType(MediaType.parseMediaType(StorageService.contentType(file.getType())))
                 //.header Добавьте данное значение одиночного заголовка под данным именем.
                 //Парамы:
                 //heeyName - имя заголовка heeyValues - значение (значения) заголовка
@@ -93,11 +237,197 @@ public class StorageController {
                 //См. также:
                 //RFC 6266
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFilename() + "\"")
+                //клиент может докачивать файл с места обрыва запросами с заголовком Range
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .eTag(etag)
+                .cacheControl(REVALIDATE)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentLength(file.getSize())
                 //.body Задайте тело объекта ответа и возвращает его.
                 //Парамы:
                 //body - тело объекта ответа
                 //Возврат:
                 //построенный объект ответа
-                .body(file.getContent());
+                //StreamingResponseBody пишет содержимое прямо в выходной поток ответа в отдельном потоке,
+                //не собирая файл в массив байт: расход памяти не зависит от размера файла, а первые байты уходят клиенту сразу.
+                //Бюджет передач занимается последним, когда заголовки уже собраны и ничто не может бросить исключение до записи тела
+                .body(admitted(user, file.getSize(), out -> storageService.writeFileContent(file, 0, file.getSize(), out)));
+    }
+
+    //Ответ 206 Partial Content. Из хранилища читаются только запрошенные диапазоны байт.
+    //Один диапазон отдается как есть с Content-Range, несколько - как multipart/byteranges
+    private ResponseEntity<StreamingResponseBody> downloadRanges(SecurityUser user, File file, String etag, List<HttpRange> ranges) {
+        long size = file.getSize();
+        List<long[]> bounds = new ArrayList<>();
+        long total = 0;
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(size);
+            long end = range.getRangeEnd(size);
+            //диапазон начинается за концом файла
+            if (start >= size || start > end) {
+                return rangeNotSatisfiable(file);
+            }
+            bounds.add(new long[]{start, end});
+        }
+        //пересекающиеся и соседние диапазоны объединяются: иначе "0-,0-,0-..." занял бы бюджет и отдал файл много раз.
+        //После объединения ответ не больше самого файла
+        bounds = merge(bounds);
+        for (long[] bound : bounds) {
+            total += bound[1] - bound[0] + 1;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFilename() + "\"")
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .eTag(etag)
+                .cacheControl(REVALIDATE)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (bounds.size() == 1) {
+            long start = bounds.get(0)[0];
+            long end = bounds.get(0)[1];
+            return response
+                    .contentType(MediaType.parseMediaType(StorageService.contentType(file.getType())))
+                    .header(HttpHeaders.CONTENT_RANGE, contentRange(start, end, size))
+                    .contentLength(end - start + 1)
+                    .body(admitted(user, total, out -> storageService.writeFileContent(file, start, end - start + 1, out)));
+        }
+        List<long[]> merged = bounds;
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        return response
+                .contentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary))
+                .body(admitted(user, total, out -> {
+                    for (long[] bound : merged) {
+                        String partHeaders = "\r\n--" + boundary + "\r\n"
+                                + HttpHeaders.CONTENT_TYPE + ": " + StorageService.contentType(file.getType()) + "\r\n"
+                                + HttpHeaders.CONTENT_RANGE + ": " + contentRange(bound[0], bound[1], size) + "\r\n\r\n";
+                        out.write(partHeaders.getBytes(StandardCharsets.US_ASCII));
+                        storageService.writeFileContent(file, bound[0], bound[1] - bound[0] + 1, out);
+                    }
+                    out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                }));
+    }
+
+    //Диапазоны по возрастанию начала, пересекающиеся и идущие подряд склеены в один
+    private List<long[]> merge(List<long[]> bounds) {
+        bounds.sort(Comparator.comparingLong(bound -> bound[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] bound : bounds) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && bound[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], bound[1]);
+            } else {
+                merged.add(new long[]{bound[0], bound[1]});
+            }
+        }
+        return merged;
+    }
+
+    //Несколько файлов одним ZIP-архивом: по списку имен (filename=a&filename=b) или страницей списка файлов (limit и cursor, как в /list).
+    //Архив пишется прямо в ответ, файлы читаются из хранилища по одному, поэтому длина ответа заранее неизвестна
+    //и он уходит частями (chunked). Для следующей страницы курсор отдается в том же заголовке, что и в /list
+    @GetMapping("/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(@AuthenticationPrincipal SecurityUser user,
+                                                                 @RequestParam(value = "filename", required = false) List<String> filenames,
+                                                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                                                 @RequestParam(value = "cursor", required = false) String cursor) {
+        boolean byName = filenames != null && !filenames.isEmpty();
+        int count = byName ? filenames.size() : limit == null ? 0 : limit;
+        if (count < 1 || count > maxArchiveFiles) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Pass 1 to " + maxArchiveFiles + " filenames or a limit in that range");
+        }
+        List<File> files = byName
+                ? storageService.getFilesByName(user.getUsername(), filenames)
+                : storageService.getFilePage(user.getUsername(), limit, parseCursor(cursor));
+        long total = 0;
+        for (File file : files) {
+            total += file.getSize();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"");
+        if (!byName && files.size() == limit) {
+            File last = files.get(files.size() - 1);
+            response.header(NEXT_CURSOR_HEADER, new FileCursor(last.getFilename(), last.getId()).encode());
+        }
+        return response.body(admitted(user, total, out -> storageService.writeArchive(files, out)));
+    }
+
+    private FileCursor parseCursor(String cursor) {
+        try {
+            return cursor == null ? null : FileCursor.decode(cursor);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed cursor", ex);
+        }
+    }
+
+    //Скачивание занимает объем ответа в бюджете передач (TransferBudget) с этого момента и до конца записи тела.
+    //Если бюджет занят, ответ - 503 с Retry-After еще до чтения содержимого.
+    //Если тело так и не запустится (клиент ушел, пул отказал, исключение), разрешение закроет TransferPermitFilter
+    private StreamingResponseBody admitted(SecurityUser user, long bytes, StreamingResponseBody body) {
+        TransferBudget.Permit permit = transferBudget.acquire(user.getUsername(), bytes);
+        RequestContextHolder.currentRequestAttributes()
+                .setAttribute(TransferPermitFilter.PERMIT_ATTRIBUTE, permit, RequestAttributes.SCOPE_REQUEST);
+        return out -> {
+            try (permit) {
+                body.writeTo(out);
+            }
+        };
+    }
+
+    //If-None-Match сравнивается слабо: W/"x" совпадает с "x", а * - с любой версией
+    private boolean notModified(HttpHeaders requestHeaders, String etag) {
+        for (String candidate : requestHeaders.getIfNoneMatch()) {
+            if (candidate.equals("*") || candidate.replaceFirst("^W/", "").equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> ResponseEntity<T> notModifiedResponse(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(REVALIDATE)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .build();
+    }
+
+    //Ответ со сжатыми байтами из хранилища и Content-Encoding: сервер ничего не распаковывает и не сжимает заново.
+    //Accept-Ranges не отправляется: диапазоны отдаются только по исходному содержимому, а не по сжатому
+    private ResponseEntity<StreamingResponseBody> downloadStored(SecurityUser user, File file, StoredBlob stored, String etag) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(StorageService.contentType(file.getType())))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFilename() + "\"")
+                .header(HttpHeaders.CONTENT_ENCODING, stored.getEncoding())
+                .eTag(etag)
+                .cacheControl(REVALIDATE)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentLength(stored.getStoredSize())
+                .body(admitted(user, stored.getStoredSize(), out -> storageService.writeStoredContent(file, out)));
+    }
+
+    //Принимает ли клиент кодировку по Accept-Encoding: кодировка названа явно и q не равно 0.
+    //* не считается: lz4 и zstd понимают не все клиенты, и отдавать их можно только тем, кто назвал их сам
+    private boolean acceptsEncoding(HttpHeaders requestHeaders, String encoding) {
+        for (String header : requestHeaders.get(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String coding : header.split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim();
+                boolean refused = Arrays.stream(parts).skip(1).map(String::trim).anyMatch(param -> param.matches("q=0(\\.0*)?"));
+                if (name.equalsIgnoreCase(encoding) && !refused) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private ResponseEntity<StreamingResponseBody> rangeNotSatisfiable(File file) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + file.getSize())
+                .build();
+    }
+
+    private String contentRange(long start, long end, long size) {
+        return "bytes " + start + "-" + end + "/" + size;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package ru.netology.controllers;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import ru.netology.dto.UploadSessionResponse;
+import ru.netology.model.SecurityUser;
+import ru.netology.services.UploadSessionService;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+//Докачиваемая загрузка: POST /upload открывает сессию, PUT /upload/{id}/{index} присылает часть,
+//GET /upload/{id} показывает принятые части, POST /upload/{id}/commit собирает файл, DELETE /upload/{id} отменяет загрузку
+@RestController
+@RequestMapping("/upload")
+public class UploadController {
+    private final UploadSessionService uploadSessionService;
+
+    public UploadController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @PostMapping
+    public ResponseEntity<UploadSessionResponse> openSession(@AuthenticationPrincipal SecurityUser user,
+                                                             @RequestParam("filename") String filename,
+                                                             @RequestParam("size") long size,
+                                                             @RequestParam(value = "type", defaultValue = "application/octet-stream") String type,
+                                                             @RequestParam(value = "chunkSize", required = false) Integer chunkSize) {
+        return ResponseEntity.ok(uploadSessionService.openSession(user.getUsername(), filename, type, size, chunkSize));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<UploadSessionResponse> getSession(@AuthenticationPrincipal SecurityUser user,
+                                                            @PathVariable("id") String id) {
+        return ResponseEntity.ok(uploadSessionService.getSession(user.getUsername(), id));
+    }
+
+    //Тело запроса - сырые байты части. Оно не разбирается как multipart и не буферизуется,
+    //а сразу потоком уходит в хранилище. Читается оно уже в пуле transferExecutor (Callable):
+    //медленный клиент не держит поток Tomcat
+    @PutMapping("/{id}/{index}")
+    public Callable<ResponseEntity<?>> putChunk(@AuthenticationPrincipal SecurityUser user,
+                                                @PathVariable("id") String id,
+                                                @PathVariable("index") int index,
+                                                HttpServletRequest request) {
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            throw new ResponseStatusException(HttpStatus.LENGTH_REQUIRED);
+        }
+        return () -> {
+            uploadSessionService.putChunk(user.getUsername(), id, index, length, request.getInputStream());
+            return ResponseEntity.ok(HttpStatus.OK);
+        };
+    }
+
+    //сборка файла из частей читает и пишет весь файл, поэтому тоже выполняется в пуле transferExecutor
+    @PostMapping("/{id}/commit")
+    public Callable<ResponseEntity<?>> commit(@AuthenticationPrincipal SecurityUser user,
+                                              @PathVariable("id") String id) {
+        return () -> {
+            uploadSessionService.commit(user.getUsername(), id);
+            return ResponseEntity.ok(HttpStatus.OK);
+        };
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> abort(@AuthenticationPrincipal SecurityUser user,
+                                   @PathVariable("id") String id) throws IOException {
+        uploadSessionService.abort(user.getUsername(), id);
+        return ResponseEntity.ok(HttpStatus.OK);
+    }
+}
@@ -1,5 +1,6 @@
 package ru.netology.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -9,6 +10,14 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 public class FileResponse {
 
+    //нужен только для курсора следующей страницы, клиенту не отдается
+    @JsonIgnore
+    private Long id;
     private String filename;
     private Long size;
-}
\ No newline at end of file
+
+    public FileResponse(String filename, Long size) {
+        this.filename = filename;
+        this.size = size;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.netology.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadSessionResponse {
+
+    private String id;
+    private String filename;
+    private Long size;
+    //часть с номером i начинается с байта i * chunkSize
+    private Integer chunkSize;
+    //номера уже принятых частей: остальные клиенту нужно дослать
+    private List<Integer> receivedChunks;
+}
@@ -10,24 +10,29 @@ import javax.persistence.*;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
-@Table(name = "files")
+//индекс (owner, filename, id) обслуживает и постраничный список файлов владельца, и поиск файла по имени
+@Table(name = "files", indexes = @Index(name = "files_owner_filename_id_idx", columnList = "owner, filename, id"))
 public class File {
+    //Последовательность с выдачей блоками по 50 (pooled): id известен до insert, поэтому Hibernate
+    //может отправлять вставки пачками (hibernate.jdbc.batch_size). С IDENTITY каждая вставка шла бы отдельно,
+    //чтобы база вернула ключ. Имя то же, что у последовательности прежнего bigserial, шаг ей меняет schema.sql
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "files_id_seq")
+    @SequenceGenerator(name = "files_id_seq", sequenceName = "files_id_seq", allocationSize = 50)
     private Long id;
     private String filename;
     private String type;
     private Long size;
-    @Lob
-    //Аннотация @Lob указывает, что база данных должна хранить свойство как большой объект .
-    private byte[] content;
+    //SHA-256 содержимого: сами байты хранятся отдельно (см. StoredBlob), чтобы таблица files оставалась маленькой,
+    //а одинаковые файлы разных строк хранились один раз
+    private String contentHash;
     private String owner;
 
-    public File(String filename, String type, Long size, byte[] content, String owner) {
+    public File(String filename, String type, Long size, String contentHash, String owner) {
         this.filename = filename;
         this.type = type;
         this.size = size;
-        this.content = content;
+        this.contentHash = contentHash;
         this.owner = owner;
     }
-}
\ No newline at end of file
+}
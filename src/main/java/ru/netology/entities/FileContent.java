@@ -0,0 +1,26 @@
+package ru.netology.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.sql.Blob;
+
+//Содержимое файла для PostgresBlobStore. Вынесено из files, чтобы запросы к метаданным не касались large object
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "file_contents")
+public class FileContent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Lob
+    private Blob data;
+
+    public FileContent(Blob data) {
+        this.data = data;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.netology.entities;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+//Уникальное содержимое, адресуемое своим SHA-256. Одинаковые файлы хранятся в BlobStore один раз,
+//а refCount считает, сколько строк files на него ссылаются
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "blobs")
+public class StoredBlob {
+    @Id
+    private String hash;
+    private String blobKey;
+    //размер исходного (несжатого) содержимого
+    private Long size;
+    private Long refCount;
+    //алгоритм сжатия в BlobStore (ContentCodec.getEncoding()) или null, если содержимое хранится как есть
+    private String encoding;
+    //сколько байт занимает содержимое в BlobStore
+    private Long storedSize;
+
+    public StoredBlob(String hash, String blobKey, Long size, Long refCount) {
+        this(hash, blobKey, size, refCount, null, size);
+    }
+
+    public StoredBlob(String hash, String blobKey, Long size, Long refCount, String encoding, Long storedSize) {
+        this.hash = hash;
+        this.blobKey = blobKey;
+        this.size = size;
+        this.refCount = refCount;
+        this.encoding = encoding;
+        this.storedSize = storedSize;
+    }
+}
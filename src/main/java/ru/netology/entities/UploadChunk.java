@@ -0,0 +1,31 @@
+package ru.netology.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+//Принятая часть загрузки. Содержимое части лежит в BlobStore под ключом blobKey
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "upload_chunks",
+        uniqueConstraints = @UniqueConstraint(name = "upload_chunks_session_index_uq", columnNames = {"sessionId", "chunkIndex"}))
+public class UploadChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String sessionId;
+    private Integer chunkIndex;
+    private String blobKey;
+    private Long size;
+
+    public UploadChunk(String sessionId, Integer chunkIndex, String blobKey, Long size) {
+        this.sessionId = sessionId;
+        this.chunkIndex = chunkIndex;
+        this.blobKey = blobKey;
+        this.size = size;
+    }
+}
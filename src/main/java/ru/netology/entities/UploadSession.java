@@ -0,0 +1,26 @@
+package ru.netology.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+//Сессия докачиваемой загрузки: файл приходит частями (UploadChunk) в любом порядке и собирается при commit
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "upload_sessions", indexes = @Index(name = "upload_sessions_updated_at_idx", columnList = "updatedAt"))
+public class UploadSession {
+    @Id
+    private String id;
+    private String owner;
+    private String filename;
+    private String type;
+    private Long size;
+    private Integer chunkSize;
+    //время последней активности, по нему фоновая задача удаляет брошенные сессии
+    private Instant updatedAt;
+}
@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import ru.netology.security.UserCacheInvalidator;
+
 import javax.persistence.*;
 
 @Entity
@@ -11,6 +13,7 @@ import javax.persistence.*;
 @AllArgsConstructor
 @NoArgsConstructor
 @Table(name = "users")
+@EntityListeners(UserCacheInvalidator.class)
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -18,6 +21,14 @@ public class User {
     private String username;
     private String password;
     private String authority;
+    //номер версии списка файлов пользователя: растет при каждой загрузке, удалении и переименовании.
+    //По нему /list отдает ETag без чтения самого списка
+    private Long filesVersion;
+    //объем файлов пользователя в байтах, меняется вместе с filesVersion. null - еще не посчитан (пользователь
+    //создан до появления колонки), его посчитает StorageQuota при первой проверке
+    private Long usedBytes;
+    //квота пользователя в байтах, null - квота по умолчанию storage.quota.defaultBytes
+    private Long quotaBytes;
 
     public User(String username, String password, String authority) {
         this.username = username;
@@ -0,0 +1,70 @@
+package ru.netology.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Число запросов, которые обрабатываются прямо сейчас: gauge http.server.requests.active.
+ * Скачивание (StreamingResponseBody) продолжается асинхронно после выхода из цепочки фильтров,
+ * поэтому такой запрос считается завершенным только по onComplete асинхронной обработки.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class InFlightRequestsFilter extends OncePerRequestFilter {
+    private final AtomicInteger active = new AtomicInteger();
+
+    public InFlightRequestsFilter(MeterRegistry meterRegistry) {
+        Gauge.builder("http.server.requests.active", active, AtomicInteger::get)
+                .description("Requests currently being processed, including streaming downloads")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        active.incrementAndGet();
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            async = request.isAsyncStarted();
+        } finally {
+            if (async) {
+                request.getAsyncContext().addListener(new CompletionListener());
+            } else {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    //onComplete вызывается ровно один раз, в том числе после ошибки и таймаута
+    private class CompletionListener implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            active.decrementAndGet();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
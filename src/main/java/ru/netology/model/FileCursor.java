@@ -0,0 +1,35 @@
+package ru.netology.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Позиция в списке файлов владельца для постраничного вывода по ключу (filename, id).
+ * Клиенту отдается в виде непрозрачной строки: следующая страница начинается строго после этой позиции,
+ * поэтому каждая страница - один проход по индексу независимо от того, как далеко клиент пролистал.
+ */
+@Value
+public class FileCursor {
+    String filename;
+    Long id;
+
+    public String encode() {
+        String raw = id + ":" + filename;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException если строка не была получена из encode()
+     */
+    public static FileCursor decode(String token) {
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        //id - число, поэтому первое двоеточие всегда разделитель, даже если оно есть в имени файла
+        int separator = raw.indexOf(':');
+        if (separator < 1) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        return new FileCursor(raw.substring(separator + 1), Long.valueOf(raw.substring(0, separator)));
+    }
+}
@@ -0,0 +1,11 @@
+package ru.netology.model;
+
+import lombok.Value;
+
+//Строка files без самой сущности: для массовых операций нужны только id, ссылка на содержимое и размер
+@Value
+public class FileRef {
+    Long id;
+    String contentHash;
+    Long size;
+}
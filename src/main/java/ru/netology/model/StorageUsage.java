@@ -0,0 +1,10 @@
+package ru.netology.model;
+
+import lombok.Value;
+
+//Занятый объем и квота пользователя из таблицы users, любое из значений может быть null
+@Value
+public class StorageUsage {
+    Long usedBytes;
+    Long quotaBytes;
+}
@@ -0,0 +1,22 @@
+package ru.netology.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.netology.entities.FileContent;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface FileContentRepository extends JpaRepository<FileContent, Long> {
+
+    //Large object живет отдельно от строки: delete from file_contents удаляет только ссылку (oid),
+    //а место в базе освобождает lo_unlink. Вызывается перед удалением строк в той же транзакции.
+    //Это select, поэтому без @Transactional он попал бы в транзакцию только на чтение, где lo_unlink запрещен
+    @Transactional
+    @Query(value = "select lo_unlink(data) from {h-schema}file_contents where id in (:ids) and data is not null", nativeQuery = true)
+    List<Integer> unlinkData(@Param("ids") Collection<Long> ids);
+}
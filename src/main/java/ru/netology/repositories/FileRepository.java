@@ -1,14 +1,19 @@
 package ru.netology.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.netology.dto.FileResponse;
 import ru.netology.entities.File;
+import ru.netology.model.FileRef;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 @Repository
 public interface FileRepository extends JpaRepository<File, Long> {
@@ -24,18 +29,90 @@ public interface FileRepository extends JpaRepository<File, Long> {
     //Это упрощает рефакторинг кода в случае необходимости добавления/удаления дополнительных параметров.
     //
     //@ Param работает как с @ Query, так и с @ NamedQuery.
-    @Query(value = "select f from File f where f.owner = :owner")
-    Optional<List<File>> findAllByOwner(@Param("owner") String owner);
+    //выбираем только id, имя и размер сразу в FileResponse, без загрузки сущностей File.
+    //Pageable превращается в limit в SQL, а сортировка по (filename, id) идет по индексу (owner, filename, id)
+    @Query("select new ru.netology.dto.FileResponse(f.id, f.filename, f.size) from File f where f.owner = :owner " +
+            "order by f.filename, f.id")
+    List<FileResponse> findFilesByOwner(@Param("owner") String owner, Pageable pageable);
+
+    //следующая страница после позиции (filename, id).
+    //Условие f.filename >= :filename избыточно, но дает базе начальную точку диапазона в индексе,
+    //так что страница читается одним проходом по индексу, а не фильтрацией всех файлов владельца
+    @Query("select new ru.netology.dto.FileResponse(f.id, f.filename, f.size) from File f where f.owner = :owner " +
+            "and f.filename >= :filename and (f.filename > :filename or f.id > :id) " +
+            "order by f.filename, f.id")
+    List<FileResponse> findFilesByOwnerAfter(@Param("owner") String owner, @Param("filename") String filename,
+                                             @Param("id") Long id, Pageable pageable);
+
+    //те же страницы, что findFilesByOwner/findFilesByOwnerAfter, но целыми сущностями: для ZIP-архива нужен хэш содержимого
+    @Query("select f from File f where f.owner = :owner order by f.filename, f.id")
+    List<File> findByOwner(@Param("owner") String owner, Pageable pageable);
+
+    @Query("select f from File f where f.owner = :owner " +
+            "and f.filename >= :filename and (f.filename > :filename or f.id > :id) " +
+            "order by f.filename, f.id")
+    List<File> findByOwnerAfter(@Param("owner") String owner, @Param("filename") String filename,
+                                @Param("id") Long id, Pageable pageable);
+
+    //кастомный запрос, файлы с любым из имен одним select
+    List<File> findByOwnerAndFilenameIn(String owner, Collection<String> filenames);
 
     //кастомный запрос
     File findByFilenameAndOwner(String filename, String owner);
 
-    //кастомный запрос
-    void removeByFilenameAndOwner(String filename, String owner);
+    //Для массового удаления: только id, хэш содержимого и размер, сущности File не создаются.
+    //Строки блокируются до конца транзакции, чтобы параллельное удаление не освободило то же содержимое второй раз
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new ru.netology.model.FileRef(f.id, f.contentHash, f.size) from File f " +
+            "where f.owner = :owner and f.filename in :filenames")
+    List<FileRef> findRefsByOwnerAndFilenameIn(@Param("owner") String owner, @Param("filenames") Collection<String> filenames);
+
+    //pattern - prefix с экранированными '!', '%', '_' и '%' в конце. Условие f.filename >= :prefix избыточно,
+    //как и в findFilesByOwnerAfter: оно дает базе начало диапазона в индексе (owner, filename, id)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new ru.netology.model.FileRef(f.id, f.contentHash, f.size) from File f " +
+            "where f.owner = :owner and f.filename >= :prefix and f.filename like :pattern escape '!'")
+    List<FileRef> findRefsByOwnerAndPrefix(@Param("owner") String owner, @Param("prefix") String prefix,
+                                           @Param("pattern") String pattern);
+
+    //Файлы, которые переименуют renameFile и renameByPrefix, - для FilenameIndex, который меняет их по id.
+    //Строки блокируются до конца транзакции, чтобы между выборкой и update их не переименовали или не удалили
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new ru.netology.dto.FileResponse(f.id, f.filename, f.size) from File f " +
+            "where f.owner = :owner and f.filename = :filename")
+    List<FileResponse> findFilesByOwnerAndFilename(@Param("owner") String owner, @Param("filename") String filename);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new ru.netology.dto.FileResponse(f.id, f.filename, f.size) from File f " +
+            "where f.owner = :owner and f.filename >= :prefix and f.filename like :pattern escape '!'")
+    List<FileResponse> findFilesByOwnerAndPrefix(@Param("owner") String owner, @Param("prefix") String prefix,
+                                                 @Param("pattern") String pattern);
+
+    //один delete на все строки, без предварительного select сущностей, как у производного removeBy...
+    @Modifying
+    @Query("delete from File f where f.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
 
     @Modifying
     //Аннотация @Modifying используется для улучшения аннотации @Query,
     //чтобы мы могли выполнять не только запросы SELECT , но также запросы INSERT , UPDATE , DELETE и даже DDL .
     @Query("update File f set f.filename = :newName where f.filename = :filename and f.owner = :owner")
-    void renameFile(@Param("filename") String filename, @Param("newName") String newFilename, @Param("owner") String owner);
-}
\ No newline at end of file
+    int renameFile(@Param("filename") String filename, @Param("newName") String newFilename, @Param("owner") String owner);
+
+    //Переименование всех файлов с префиксом одним update: prefix заменяется на newPrefix, остаток имени сохраняется.
+    //start - позиция остатка имени (длина prefix + 1), pattern - как в findRefsByOwnerAndPrefix.
+    //substring с длиной: шаблон функции в диалектах Hibernate - на три аргумента, на два он пишет предупреждение HHH000174
+    @Modifying
+    @Query("update File f set f.filename = concat(:newPrefix, substring(f.filename, :start, length(f.filename))) " +
+            "where f.owner = :owner and f.filename >= :prefix and f.filename like :pattern escape '!'")
+    int renameByPrefix(@Param("owner") String owner, @Param("prefix") String prefix, @Param("pattern") String pattern,
+                       @Param("newPrefix") String newPrefix, @Param("start") int start);
+
+    //полный подсчет объема файлов владельца, нужен только один раз для пользователей без users.used_bytes
+    @Query("select coalesce(sum(f.size), 0) from File f where f.owner = :owner")
+    long sumSizeByOwner(@Param("owner") String owner);
+
+    //все файлы владельца для FilenameIndex: только id, имя и размер, без сортировки
+    @Query("select new ru.netology.dto.FileResponse(f.id, f.filename, f.size) from File f where f.owner = :owner")
+    List<FileResponse> findAllFilesByOwner(@Param("owner") String owner);
+}
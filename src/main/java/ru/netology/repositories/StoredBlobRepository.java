@@ -0,0 +1,59 @@
+package ru.netology.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.netology.entities.StoredBlob;
+
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String>, StoredBlobRepositoryCustom {
+
+    //уже сохраненное содержимое из hashes. Строки блокируются до конца транзакции,
+    //чтобы параллельное удаление не убрало содержимое, на которое пачка загрузок сейчас добавит ссылки
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from StoredBlob b where b.hash in :hashes")
+    List<StoredBlob> findAllForUpdate(@Param("hashes") Collection<String> hashes);
+
+    //счетчики меняются одним update в базе, а не через чтение и запись сущности,
+    //поэтому параллельные загрузки и удаления одного содержимого не теряют изменения.
+    //Возвращают число измененных строк: 0 - такого содержимого нет
+    @Modifying
+    @Query("update StoredBlob b set b.refCount = b.refCount + 1 where b.hash = :hash")
+    int incrementRefCount(@Param("hash") String hash);
+
+    //для пачки загрузок: count ссылок сразу на все содержимое из hashes
+    @Modifying
+    @Query("update StoredBlob b set b.refCount = b.refCount + :count where b.hash in :hashes")
+    int incrementRefCounts(@Param("hashes") Collection<String> hashes, @Param("count") long count);
+
+    @Modifying
+    @Query("update StoredBlob b set b.refCount = b.refCount - 1 where b.hash = :hash")
+    int decrementRefCount(@Param("hash") String hash);
+
+    //для массового удаления: count ссылок с каждого содержимого из hashes
+    @Modifying
+    @Query("update StoredBlob b set b.refCount = b.refCount - :count where b.hash in :hashes")
+    int decrementRefCounts(@Param("hashes") Collection<String> hashes, @Param("count") long count);
+
+    //содержимое из hashes, на которое не осталось ссылок. Блокировка не дает параллельной загрузке
+    //добавить ссылку между этим запросом и deleteUnreferenced
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from StoredBlob b where b.hash in :hashes and b.refCount <= 0")
+    List<StoredBlob> findUnreferencedForUpdate(@Param("hashes") Collection<String> hashes);
+
+    @Modifying
+    @Query("delete from StoredBlob b where b.hash in :hashes and b.refCount <= 0")
+    int deleteUnreferenced(@Param("hashes") Collection<String> hashes);
+
+    //удаляет запись, только если на содержимое больше никто не ссылается
+    @Modifying
+    @Query("delete from StoredBlob b where b.hash = :hash and b.refCount <= 0")
+    int deleteUnreferenced(@Param("hash") String hash);
+}
@@ -0,0 +1,14 @@
+package ru.netology.repositories;
+
+import ru.netology.entities.StoredBlob;
+
+import java.util.List;
+
+//Часть StoredBlobRepository, которую Spring Data не выводит из запросов, реализована в StoredBlobRepositoryImpl
+public interface StoredBlobRepositoryCustom {
+
+    //Вставляет записи о новом содержимом и возвращает те из них, которые не вставлены, потому что запись
+    //с таким хэшем уже есть (ее только что сохранила параллельная загрузка того же содержимого).
+    //Конфликт не обрывает транзакцию
+    List<StoredBlob> insertAbsent(List<StoredBlob> blobs);
+}
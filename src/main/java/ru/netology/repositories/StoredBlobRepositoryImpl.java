@@ -0,0 +1,103 @@
+package ru.netology.repositories;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import ru.netology.entities.StoredBlob;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Вставка записей StoredBlob под savepoint.
+ * Две загрузки одного нового содержимого обе не находят его и обе вставляют запись с одним хэшем.
+ * В PostgreSQL ошибка первичного ключа обрывает всю транзакцию, поэтому вставка идет напрямую через JDBC-соединение
+ * транзакции: при конфликте откатывается только она (до savepoint), а Hibernate ошибки не видит и транзакцию не помечает.
+ */
+public class StoredBlobRepositoryImpl implements StoredBlobRepositoryCustom {
+    //нарушение уникальности: одинаковый SQLSTATE в PostgreSQL и H2
+    private static final String UNIQUE_VIOLATION = "23505";
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<StoredBlob> insertAbsent(List<StoredBlob> blobs) {
+        if (blobs.isEmpty()) {
+            return List.of();
+        }
+        Session session = entityManager.unwrap(Session.class);
+        String sql = insertSql(session);
+        return session.doReturningWork(connection -> {
+            //обычно конфликтов нет, и все записи уходят одной пачкой
+            if (tryInsert(connection, sql, blobs)) {
+                return List.of();
+            }
+            //пачка откачена: вставляем по одной, чтобы узнать, какие хэши уже заняты
+            List<StoredBlob> existing = new ArrayList<>();
+            for (StoredBlob blob : blobs) {
+                if (!tryInsert(connection, sql, List.of(blob))) {
+                    existing.add(blob);
+                }
+            }
+            return existing;
+        });
+    }
+
+    private boolean tryInsert(Connection connection, String sql, List<StoredBlob> blobs) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        try (PreparedStatement insert = connection.prepareStatement(sql)) {
+            for (StoredBlob blob : blobs) {
+                insert.setString(1, blob.getHash());
+                insert.setString(2, blob.getBlobKey());
+                insert.setLong(3, blob.getSize());
+                insert.setLong(4, blob.getRefCount());
+                if (blob.getEncoding() == null) {
+                    insert.setNull(5, Types.VARCHAR);
+                } else {
+                    insert.setString(5, blob.getEncoding());
+                }
+                insert.setLong(6, blob.getStoredSize());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        } catch (SQLException ex) {
+            if (!isUniqueViolation(ex)) {
+                throw ex;
+            }
+            connection.rollback(savepoint);
+            return false;
+        }
+        connection.releaseSavepoint(savepoint);
+        return true;
+    }
+
+    //в пачке драйвер PostgreSQL кладет исходную ошибку в getNextException
+    private boolean isUniqueViolation(SQLException ex) {
+        for (SQLException cause = ex; cause != null; cause = cause.getNextException()) {
+            if (UNIQUE_VIOLATION.equals(cause.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //имена таблицы (со схемой) и колонок берутся из маппинга StoredBlob, а не повторяются здесь
+    private String insertSql(Session session) {
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.unwrap(SessionImplementor.class).getFactory()
+                .getMetamodel().entityPersister(StoredBlob.class);
+        return "insert into " + persister.getTableName() + " ("
+                + persister.getIdentifierColumnNames()[0] + ", "
+                + persister.getPropertyColumnNames("blobKey")[0] + ", "
+                + persister.getPropertyColumnNames("size")[0] + ", "
+                + persister.getPropertyColumnNames("refCount")[0] + ", "
+                + persister.getPropertyColumnNames("encoding")[0] + ", "
+                + persister.getPropertyColumnNames("storedSize")[0] + ") values (?, ?, ?, ?, ?, ?)";
+    }
+}
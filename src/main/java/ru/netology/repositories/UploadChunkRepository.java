@@ -0,0 +1,16 @@
+package ru.netology.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import ru.netology.entities.UploadChunk;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadChunkRepository extends JpaRepository<UploadChunk, Long> {
+
+    List<UploadChunk> findBySessionIdOrderByChunkIndex(String sessionId);
+
+    Optional<UploadChunk> findBySessionIdAndChunkIndex(String sessionId, Integer chunkIndex);
+}
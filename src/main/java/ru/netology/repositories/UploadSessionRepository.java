@@ -0,0 +1,32 @@
+package ru.netology.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.netology.entities.UploadSession;
+
+import javax.persistence.LockModeType;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    //кастомный запрос. Своя транзакция нужна для putChunk, который работает без транзакции:
+    //соединение возвращается в пул сразу после запроса, а не держится, пока читается тело части
+    @Transactional(readOnly = true)
+    Optional<UploadSession> findByIdAndOwner(String id, String owner);
+
+    //та же сессия, но строка блокируется до конца транзакции: части одной сессии, commit и abort
+    //выполняются по очереди и не видят сессию, которую другой запрос как раз собирает или удаляет
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from UploadSession s where s.id = :id and s.owner = :owner")
+    Optional<UploadSession> findLockedByIdAndOwner(@Param("id") String id, @Param("owner") String owner);
+
+    //сессии без активности с момента updatedAt
+    List<UploadSession> findByUpdatedAtBefore(Instant updatedAt);
+}
@@ -1,9 +1,15 @@
 package ru.netology.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.netology.entities.User;
+import ru.netology.model.StorageUsage;
 
+import javax.persistence.LockModeType;
 import java.util.Optional;
 
 @Repository
@@ -11,4 +17,32 @@ public interface UserRepository extends JpaRepository<User, Long> {
 
     Optional<User> findByUsername(String username);
 
+    //у пользователей, созданных до появления колонки, filesVersion равен null - считаем его нулем
+    @Query("select coalesce(max(u.filesVersion), 0) from User u where u.username = :username")
+    long getFilesVersion(@Param("username") String username);
+
+    @Modifying
+    @Query("update User u set u.filesVersion = coalesce(u.filesVersion, 0) + 1 where u.username = :username")
+    int incrementFilesVersion(@Param("username") String username);
+
+    //То же, что incrementFilesVersion, и вместе с ним объем файлов меняется на bytes (при удалении отрицательное).
+    //Один update на строку пользователя в транзакции загрузки или удаления. Пока usedBytes не посчитан (null),
+    //он остается null: сумма посчитается целиком, см. StorageQuota
+    @Modifying
+    @Query("update User u set u.filesVersion = coalesce(u.filesVersion, 0) + 1, u.usedBytes = u.usedBytes + :bytes " +
+            "where u.username = :username")
+    int recordFilesChange(@Param("username") String username, @Param("bytes") long bytes);
+
+    @Query("select new ru.netology.model.StorageUsage(u.usedBytes, u.quotaBytes) from User u where u.username = :username")
+    Optional<StorageUsage> findUsage(@Param("username") String username);
+
+    //то же с блокировкой строки до конца транзакции: пока usedBytes считается, загрузки и удаления его не меняют
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new ru.netology.model.StorageUsage(u.usedBytes, u.quotaBytes) from User u where u.username = :username")
+    Optional<StorageUsage> findUsageForUpdate(@Param("username") String username);
+
+    @Modifying
+    @Query("update User u set u.usedBytes = :usedBytes where u.username = :username")
+    int setUsedBytes(@Param("username") String username, @Param("usedBytes") long usedBytes);
+
 }
\ No newline at end of file
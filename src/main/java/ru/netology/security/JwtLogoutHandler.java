@@ -0,0 +1,29 @@
+package ru.netology.security;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.authentication.logout.LogoutHandler;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * POST /logout перехватывает LogoutFilter из Spring Security, до контроллера запрос не доходит.
+ * Этот обработчик отзывает токен из заголовка auth-token, чтобы после logout им нельзя было пользоваться.
+ */
+@Component
+public class JwtLogoutHandler implements LogoutHandler {
+    private final TokenRevocationStore tokenRevocationStore;
+
+    public JwtLogoutHandler(TokenRevocationStore tokenRevocationStore) {
+        this.tokenRevocationStore = tokenRevocationStore;
+    }
+
+    @Override
+    public void logout(HttpServletRequest request, HttpServletResponse response, Authentication authentication) {
+        String token = JwtTokenUtils.resolveToken(request.getHeader("auth-token"));
+        if (token != null) {
+            tokenRevocationStore.revoke(token);
+        }
+    }
+}
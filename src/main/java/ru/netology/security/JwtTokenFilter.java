@@ -4,9 +4,7 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
-import ru.netology.services.UserDetailsServiceImpl;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -17,20 +15,24 @@ import java.io.IOException;
 @Component
 public class JwtTokenFilter extends OncePerRequestFilter {
     private final JwtTokenUtils jwtTokenUtils;
-    private final UserDetailsServiceImpl userDetailsService;
+    private final UserDetailsCache userDetailsCache;
+    private final TokenRevocationStore tokenRevocationStore;
 
-    public JwtTokenFilter(JwtTokenUtils jwtTokenUtils, UserDetailsServiceImpl userDetailsService) {
+    public JwtTokenFilter(JwtTokenUtils jwtTokenUtils, UserDetailsCache userDetailsCache, TokenRevocationStore tokenRevocationStore) {
         this.jwtTokenUtils = jwtTokenUtils;
-        this.userDetailsService = userDetailsService;
+        this.userDetailsCache = userDetailsCache;
+        this.tokenRevocationStore = tokenRevocationStore;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         try {
             String token = parseToken(request);
-            if (token != null && jwtTokenUtils.validateToken(token)) {
+            //токен после logout отозван и больше не аутентифицирует запросы
+            if (token != null && !tokenRevocationStore.isRevoked(token) && jwtTokenUtils.validateToken(token)) {
                 String username = jwtTokenUtils.getUsernameFromToken(token);
-                var userDetails = userDetailsService.loadUserByUsername(username);
+                //пользователь берется из кэша, в базу идем только при промахе
+                var userDetails = userDetailsCache.get(username);
                 var authToken = new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authToken);
@@ -42,10 +44,6 @@ public class JwtTokenFilter extends OncePerRequestFilter {
     }
 
     private String parseToken(HttpServletRequest request) {
-        String authToken = request.getHeader("auth-token");
-        if (StringUtils.hasText(authToken) && authToken.startsWith("Bearer ")) {
-            return authToken.substring(7);
-        }
-        return null;
+        return JwtTokenUtils.resolveToken(request.getHeader("auth-token"));
     }
 }
\ No newline at end of file
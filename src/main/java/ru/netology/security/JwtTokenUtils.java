@@ -1,11 +1,19 @@
 package ru.netology.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import ru.netology.model.SecurityUser;
 
 import javax.crypto.SecretKey;
@@ -13,29 +21,22 @@ import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class JwtTokenUtils {
-    @Value("${jwt.signingKey}")
-    private String signingKey;
+    private final SecretKey key;
+    //JwtParser неизменяемый и потокобезопасный, поэтому создается один раз на все запросы
+    private final JwtParser parser;
+    private final Cache<String, Claims> verifiedTokens;
+    //auth.jwt{operation=sign|parse}: parse замеряется только при промахе кэша, то есть когда подпись действительно проверяется
+    private final Timer signTimer;
+    private final Timer parseTimer;
 
-    public String generateToken(Authentication authentication) {
-        //getPrincipal() Личность принципала, проходящего проверку подлинности. В случае запроса на аутентификацию с использованием имени пользователя и пароля,
-        //это будет имя пользователя. Ожидается, что вызывающие абоненты заполнят имя участника для запроса аутентификации.
-        //Реализация AuthenticationManager часто возвращает аутентификацию, содержащую более подробную информацию в качестве
-        //основной для использования приложением. Многие поставщики аутентификации создадут объект UserDetails в качестве основного.
-        //Возвращается:
-        //участник, проходящий аутентификацию, или прошедший аутентификацию участник после аутентификации.
-        SecurityUser securityUser = (SecurityUser) authentication.getPrincipal();
-        //Instant Этот класс моделирует одну мгновенную точку на временной линии. Это может быть использовано для записи временных меток событий в приложении
-
-        //now() Получает текущий момент времени из системных часов.
-        //Это приведет к запросу системных часов UTC для получения текущего момента времени.
-        //Использование этого метода лишит возможности использовать альтернативный источник времени для тестирования,
-        //поскольку часы фактически жестко запрограммированы.
-        //Возвращается:
-        //текущий момент времени с использованием системных часов, а не null
-        Instant now = Instant.now();
+    public JwtTokenUtils(@Value("${jwt.signingKey}") String signingKey, @Value("${jwt.cacheSize}") long cacheSize,
+                         MeterRegistry meterRegistry) {
+        signTimer = Timer.builder("auth.jwt").tag("operation", "sign").register(meterRegistry);
+        parseTimer = Timer.builder("auth.jwt").tag("operation", "parse").register(meterRegistry);
         //SecretKey Секретный (симметричный) ключ. Цель этого интерфейса - сгруппировать (и обеспечить безопасность типов для) все интерфейсы с секретным ключом.
         //Реализации поставщика этого интерфейса должны перезаписывать методы equals и hashCode, унаследованные от Object,
         //чтобы секретные ключи сравнивались на основе их базового ключевого материала, а не на основе ссылки.
@@ -54,14 +55,79 @@ public class JwtTokenUtils {
         //Возвращается: новый экземпляр SecretKey для использования с алгоритмами HMAC-SHA, основанными на указанном массиве байтов ключа.
         //Бросает:
         //Исключение WeakKeyException – если длина массива байтов ключа меньше 256 бит (32 байта), как предписано спецификацией JWT JWA (RFC 7518, раздел 3.2)
-        SecretKey key = Keys.hmacShaKeyFor(signingKey.getBytes(StandardCharsets.UTF_8));
+        key = Keys.hmacShaKeyFor(signingKey.getBytes(StandardCharsets.UTF_8));
+        //Jwts Заводской класс полезен для создания экземпляров интерфейсов JWT.
+        //Использование этого заводского класса может быть хорошей альтернативой тесной увязке кода с классами реализации.
+        //parserBuilder() Возвращает новый экземпляр JwtParserBuilder, который можно настроить для создания неизменяемого/безопасного для потоков JwtParser.
+        //Возврат:
+        //новый экземпляр JwtParser, который можно настроить, создает неизменяемый/защищенный от потоков JwtParser.
+        parser = Jwts.parserBuilder()
+                //.setSigningKey Устанавливает ключ подписи, используемый для проверки обнаруженной цифровой подписи JWS.
+                //Если указанная строка JWT не является JWS (без подписи), этот ключ не используется.
+                //Обратите внимание, что этот ключ ДОЛЖЕН быть допустимым ключом для алгоритма подписи,
+                //найденного в заголовке JWT (как параметр заголовка alg).
+                //Этот метод перезаписывает любой ранее заданный ключ.
+                //Парамы:
+                //ключ - ключ проверки сигнатуры, специфичный для алгоритма, используемый для проверки любой обнаруженной цифровой подписи JWS.
+                //Возврат:
+                //построитель синтаксического анализатора для цепочки методов.
+                .setSigningKey(key)
+                //Возвращает неизменяемый/защищенный от потоков JwtParser, созданный из конфигурации этого JwtParserBuilder.
+                //Возврат:
+                //неизменяемый/защищенный от потоков JwtParser, созданный из конфигурации из этого JwtParserBuilder.
+                .build();
+        //Ограниченный по размеру кэш проверенных токенов. Каждая запись живет ровно до exp своего токена,
+        //так что просроченный токен из кэша не достать
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String token, Claims claims, long currentTime) {
+                        Date expiration = claims.getExpiration();
+                        if (expiration == null) {
+                            return 0;
+                        }
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiration.getTime() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    public String generateToken(Authentication authentication) {
+        //getPrincipal() Личность принципала, проходящего проверку подлинности. В случае запроса на аутентификацию с использованием имени пользователя и пароля,
+        //это будет имя пользователя. Ожидается, что вызывающие абоненты заполнят имя участника для запроса аутентификации.
+        //Реализация AuthenticationManager часто возвращает аутентификацию, содержащую более подробную информацию в качестве
+        //основной для использования приложением. Многие поставщики аутентификации создадут объект UserDetails в качестве основного.
+        //Возвращается:
+        //участник, проходящий аутентификацию, или прошедший аутентификацию участник после аутентификации.
+        SecurityUser securityUser = (SecurityUser) authentication.getPrincipal();
+        //Instant Этот класс моделирует одну мгновенную точку на временной линии. Это может быть использовано для записи временных меток событий в приложении
+
+        //now() Получает текущий момент времени из системных часов.
+        //Это приведет к запросу системных часов UTC для получения текущего момента времени.
+        //Использование этого метода лишит возможности использовать альтернативный источник времени для тестирования,
+        //поскольку часы фактически жестко запрограммированы.
+        //Возвращается:
+        //текущий момент времени с использованием системных часов, а не null
+        Timer.Sample sample = Timer.start();
+        Instant now = Instant.now();
         //Jwts Фабричный класс, полезный для создания экземпляров интерфейсов JWT.
         //Использование этого фабричного класса может быть хорошей альтернативой тесной привязке вашего кода к классам реализации.
 
         //builder() Возвращает новый экземпляр JwtBuilder, который можно настроить и затем использовать для создания компактных сериализованных строк JWT.
         //Возвращается:
         //новый экземпляр JwtBuilder, который можно настроить и затем использовать для создания компактных сериализованных строк JWT
-        return Jwts.builder()
+        String token = Jwts.builder()
                 //setSubject Устанавливает значение параметра JWT Claims sub (обьект). Значение null приведет к удалению свойства из утверждений.
                 //Это удобный метод. Сначала он убедится, что экземпляр Claims существует в качестве тела JWT,
                 //а затем установит в поле Claims subject указанное значение. Это позволяет вам писать код, подобный этому:
@@ -85,45 +151,14 @@ public class JwtTokenUtils {
                 //compact Фактически создает JWT и сериализует его в компактную строку, безопасную для URL-адресов,
                 //в соответствии с правилами компактной сериализации JWT.
                 .compact();
+        sample.stop(signTimer);
+        return token;
     }
 
     public Boolean validateToken(String token) {
-        SecretKey key = Keys.hmacShaKeyFor(signingKey.getBytes(StandardCharsets.UTF_8));
         try {
-            //Jwts Заводской класс полезен для создания экземпляров интерфейсов JWT.
-            //Использование этого заводского класса может быть хорошей альтернативой тесной увязке кода с классами реализации.
-            //parserBuilder() Возвращает новый экземпляр JwtParserBuilder, который можно настроить для создания неизменяемого/безопасного для потоков JwtParser.
-            //Возврат:
-            //новый экземпляр JwtParser, который можно настроить, создает неизменяемый/защищенный от потоков JwtParser.
-            Jwts.parserBuilder()
-                    //.setSigningKey Устанавливает ключ подписи, используемый для проверки обнаруженной цифровой подписи JWS.
-                    //Если указанная строка JWT не является JWS (без подписи), этот ключ не используется.
-                    //Обратите внимание, что этот ключ ДОЛЖЕН быть допустимым ключом для алгоритма подписи,
-                    //найденного в заголовке JWT (как параметр заголовка alg).
-                    //Этот метод перезаписывает любой ранее заданный ключ.
-                    //Парамы:
-                    //ключ - ключ проверки сигнатуры, специфичный для алгоритма, используемый для проверки любой обнаруженной цифровой подписи JWS.
-                    //Возврат:
-                    //построитель синтаксического анализатора для цепочки методов.
-                    .setSigningKey(key)
-                    //Возвращает неизменяемый/защищенный от потоков JwtParser, созданный из конфигурации этого JwtParserBuilder.
-                    //Возврат:
-                    //неизменяемый/защищенный от потоков JwtParser, созданный из конфигурации из этого JwtParserBuilder.
-                    .build()
-                    //.parseClaimsJws Анализирует указанную компактную сериализованную строку JWS на основе текущего состояния конфигурации построителя
-                    //и возвращает результирующий экземпляр JWS утверждений.
-                    //Это удобный метод, который можно использовать, если вы уверены, что аргумент компактной строки отражает утверждения JWS.
-                    //JWS претензий - это JWT с органом претензий, который был криптографически подписан.
-                    //Если представленная компактная строка не отражает JWS утверждений, будет выдано исключение UnsupportedJwtException.
-                    //Парамы:
-                    //claimsJws - компактная сериализованная строка Claims JWS.
-                    //Возврат:
-                    //экземпляр Jws, который отражает указанную компактную строку JWS утверждений.
-                    .parseClaimsJws(token)
-                    //getBody Возвращает тело JWT - экземпляр String или Claims.
-                    //Возврат:
-                    //тело JWT, экземпляр String или Claims.
-                    .getBody();
+            //подпись проверяется один раз, дальше до exp токен берется из кэша
+            getClaims(token);
             return true;
             //MalformedJwtException Исключение, указывающее на неправильную конструкцию JWT и подлежащее отклонению.
         } catch (MalformedJwtException ex) {
@@ -133,10 +168,27 @@ public class JwtTokenUtils {
     }
 
     public String getUsernameFromToken(String token) {
-        SecretKey key = Keys.hmacShaKeyFor(signingKey.getBytes(StandardCharsets.UTF_8));
         //getSubject() Возвращает значение sub (subject) JWT или null, если оно отсутствует.
         //Возврат:
         //подзначение JWT или null, если оно отсутствует.
-        return Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody().getSubject();
+        return getClaims(token).getSubject();
+    }
+
+    public Date getExpirationFromToken(String token) {
+        return getClaims(token).getExpiration();
+    }
+
+    //Достает сам токен из заголовка auth-token вида "Bearer <токен>", либо null
+    public static String resolveToken(String authHeader) {
+        if (StringUtils.hasText(authHeader) && authHeader.startsWith("Bearer ")) {
+            return authHeader.substring(7);
+        }
+        return null;
+    }
+
+    //Проверенные утверждения токена. Подпись проверяется только при первом обращении к токену,
+    //повторные запросы с тем же токеном берут утверждения из кэша, пока не наступит exp
+    Claims getClaims(String token) {
+        return verifiedTokens.get(token, t -> parseTimer.record(() -> parser.parseClaimsJws(t).getBody()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package ru.netology.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.jsonwebtoken.JwtException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отозванные (после logout) токены. JwtTokenFilter не пускает запросы с токеном из этого списка.
+ * Хранятся только отозванные токены и только до их exp: после exp токен и так не пройдет проверку подписи,
+ * поэтому память зависит от числа logout за время жизни токена, а не от числа логинов.
+ * Потокобезопасно, проверка isRevoked - одно обращение к хэш-таблице без выделения памяти.
+ */
+@Component
+public class TokenRevocationStore {
+    private final JwtTokenUtils jwtTokenUtils;
+    //значение - момент exp токена в миллисекундах
+    private final Cache<String, Long> revokedTokens;
+
+    public TokenRevocationStore(JwtTokenUtils jwtTokenUtils) {
+        this.jwtTokenUtils = jwtTokenUtils;
+        revokedTokens = Caffeine.newBuilder()
+                //удаляет записи в момент exp фоновым потоком, даже если к кэшу никто не обращается
+                .scheduler(Scheduler.systemScheduler())
+                .expireAfter(new Expiry<String, Long>() {
+                    @Override
+                    public long expireAfterCreate(String token, Long expiration, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiration - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Long expiration, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Long expiration, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    public void revoke(String token) {
+        try {
+            revokedTokens.put(token, jwtTokenUtils.getExpirationFromToken(token).getTime());
+        } catch (JwtException ex) {
+            //невалидный или просроченный токен и так никуда не пустят, запоминать его не нужно
+        }
+    }
+
+    public boolean isRevoked(String token) {
+        return revokedTokens.getIfPresent(token) != null;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.netology.security;
+
+import org.springframework.context.annotation.Lazy;
+import ru.netology.entities.User;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * JPA-слушатель сущности User: после изменения или удаления пользователя убирает его из UserDetailsCache,
+ * чтобы фильтр не продолжал пускать запросы со старыми правами.
+ * Экземпляр создает Spring, кэш внедряется лениво, потому что слушатели создаются вместе с EntityManagerFactory.
+ */
+public class UserCacheInvalidator {
+    private final UserDetailsCache userDetailsCache;
+
+    public UserCacheInvalidator(@Lazy UserDetailsCache userDetailsCache) {
+        this.userDetailsCache = userDetailsCache;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void invalidate(User user) {
+        userDetailsCache.invalidate(user.getUsername());
+    }
+}
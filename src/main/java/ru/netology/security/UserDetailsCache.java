@@ -0,0 +1,46 @@
+package ru.netology.security;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import ru.netology.services.UserDetailsServiceImpl;
+
+import java.time.Duration;
+
+/**
+ * Кэш пользователей для JwtTokenFilter.
+ * Без него каждый запрос с токеном делал запрос к таблице users только для того, чтобы собрать SecurityUser.
+ * Записи живут не дольше userCache.ttl, а при изменении пользователя удаляются через invalidate().
+ * Попадания и промахи видны в метриках cache.gets{cache=users}.
+ */
+@Component
+public class UserDetailsCache {
+    private final LoadingCache<String, UserDetails> users;
+
+    public UserDetailsCache(UserDetailsServiceImpl userDetailsService, MeterRegistry meterRegistry,
+                            @Value("${userCache.maximumSize}") long maximumSize, @Value("${userCache.ttl}") Duration ttl) {
+        users = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build(userDetailsService::loadUserByUsername);
+        CaffeineCacheMetrics.monitor(meterRegistry, users, "users");
+    }
+
+    public UserDetails get(String username) throws UsernameNotFoundException {
+        return users.get(username);
+    }
+
+    public void invalidate(String username) {
+        users.invalidate(username);
+    }
+
+    public void invalidateAll() {
+        users.invalidateAll();
+    }
+}
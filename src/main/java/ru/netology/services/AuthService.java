@@ -1,5 +1,6 @@
 package ru.netology.services;
 
+import io.micrometer.core.annotation.Timed;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -10,22 +11,22 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import ru.netology.dto.AuthRequest;
 import ru.netology.security.JwtTokenUtils;
-
-import java.util.HashMap;
-import java.util.Map;
+import ru.netology.security.TokenRevocationStore;
 
 @Service
 public class AuthService {
     //AuthenticationManager Обрабатывает запрос на аутентификацию.
     private final AuthenticationManager authenticationManager;
     private final JwtTokenUtils jwtTokenUtils;
-    private final Map<String, String> tokenStore = new HashMap<>();
+    private final TokenRevocationStore tokenRevocationStore;
 
-    public AuthService(AuthenticationManager authenticationManager, JwtTokenUtils jwtTokenUtils) {
+    public AuthService(AuthenticationManager authenticationManager, JwtTokenUtils jwtTokenUtils, TokenRevocationStore tokenRevocationStore) {
         this.authenticationManager = authenticationManager;
         this.jwtTokenUtils = jwtTokenUtils;
+        this.tokenRevocationStore = tokenRevocationStore;
     }
 
+    @Timed("auth.login")
     public String loginUser(AuthRequest authRequest) {
         try {
             //Authentication Представляет токен для запроса аутентификации или для прошедшего проверку участника после обработки запроса методом
@@ -84,9 +85,8 @@ public class AuthService {
             //Параметры:
             //аутентификация – новый токен аутентификации или значение null, если не требуется сохранять дополнительную аутентификационную информацию
             SecurityContextHolder.getContext().setAuthentication(authentication);
-            String token = jwtTokenUtils.generateToken(authentication);
-            tokenStore.put(token, authRequest.getLogin());
-            return token;
+            //выданные токены не запоминаем: токен самодостаточен, хранить нужно только отозванные
+            return jwtTokenUtils.generateToken(authentication);
 
         } catch (AuthenticationException ex) {
             throw new BadCredentialsException("Bad credentials");
@@ -94,6 +94,9 @@ public class AuthService {
     }
 
     public void logoutUser(String authToken) {
-        tokenStore.remove(authToken);
+        String token = JwtTokenUtils.resolveToken(authToken);
+        if (token != null) {
+            tokenRevocationStore.revoke(token);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,313 @@
+package ru.netology.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import ru.netology.entities.StoredBlob;
+import ru.netology.repositories.StoredBlobRepository;
+import ru.netology.storage.BlobStore;
+import ru.netology.storage.CompressingInputStream;
+import ru.netology.storage.CompressionPolicy;
+import ru.netology.storage.ContentCodec;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Хранение содержимого по его SHA-256 поверх BlobStore.
+ * Одинаковое содержимое пишется в BlobStore один раз, строки files ссылаются на него по хэшу,
+ * а содержимое удаляется, когда на него не остается ссылок.
+ */
+@Service
+@Transactional
+public class BlobService {
+    private final StoredBlobRepository storedBlobRepository;
+    private final BlobStore blobStore;
+    private final CompressionPolicy compressionPolicy;
+    private final DownloadCache downloadCache;
+    //транзакция только на чтение для хранилищ, которые без нее не читаются
+    private final TransactionTemplate readTransaction;
+    //размер буфера, которым содержимое файла переносится из запроса в хранилище
+    @Value("${storage.bufferSize}")
+    private int bufferSize;
+
+    public BlobService(StoredBlobRepository storedBlobRepository, BlobStore blobStore, CompressionPolicy compressionPolicy,
+                       DownloadCache downloadCache, PlatformTransactionManager transactionManager) {
+        this.storedBlobRepository = storedBlobRepository;
+        this.blobStore = blobStore;
+        this.compressionPolicy = compressionPolicy;
+        this.downloadCache = downloadCache;
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Сохраняет содержимое и возвращает его хэш.
+     * Источник читается дважды: сначала считается хэш, и только если такого содержимого еще нет, оно пишется в BlobStore.
+     * Загруженный файл уже лежит во временном файле на диске, поэтому повторное чтение дешевле записи дубликата.
+     * Заодно с хэшем запоминается начало содержимого: по нему и по type CompressionPolicy решает, сжимать ли его.
+     */
+    public String store(InputStreamSource source, long size, String type) throws IOException {
+        Digest digest = digest(source);
+        //такое содержимое уже есть - только увеличиваем счетчик ссылок, в BlobStore ничего не пишем
+        if (storedBlobRepository.incrementRefCount(digest.getHash()) > 0) {
+            return digest.getHash();
+        }
+        insert(List.of(write(source, size, type, digest, 1)));
+        return digest.getHash();
+    }
+
+    /**
+     * То же, что store, для пачки файлов (MultipartFile - это и содержимое, и его размер и тип).
+     * Возвращает хэши в порядке files. Запросов к базе - по числу разных количеств ссылок, а не по числу файлов:
+     * уже сохраненное содержимое ищется одним select, ссылки на него добавляются общим update,
+     * а новые записи StoredBlob вставляются одной пачкой insert (см. StoredBlobRepositoryImpl)
+     */
+    public List<String> storeAll(List<MultipartFile> files) throws IOException {
+        List<Digest> digests = new ArrayList<>(files.size());
+        //сколько раз каждое содержимое встречается в пачке
+        Map<String, Long> references = new LinkedHashMap<>();
+        for (MultipartFile file : files) {
+            Digest digest = digest(file);
+            digests.add(digest);
+            references.merge(digest.getHash(), 1L, Long::sum);
+        }
+        Set<String> existing = new HashSet<>();
+        for (StoredBlob blob : storedBlobRepository.findAllForUpdate(references.keySet())) {
+            existing.add(blob.getHash());
+        }
+        //существующему содержимому ссылки добавляются одним update на каждое встретившееся количество
+        Map<Long, List<String>> byCount = new HashMap<>();
+        for (String hash : existing) {
+            byCount.computeIfAbsent(references.get(hash), count -> new ArrayList<>()).add(hash);
+        }
+        for (Map.Entry<Long, List<String>> entry : byCount.entrySet()) {
+            storedBlobRepository.incrementRefCounts(entry.getValue(), entry.getKey());
+        }
+        List<StoredBlob> created = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            Digest digest = digests.get(i);
+            //новое содержимое пишется в BlobStore один раз, даже если встречается в пачке несколько раз
+            if (existing.add(digest.getHash())) {
+                created.add(write(file, file.getSize(), file.getContentType(), digest, references.get(digest.getHash())));
+            }
+        }
+        insert(created);
+        List<String> hashes = new ArrayList<>(digests.size());
+        for (Digest digest : digests) {
+            hashes.add(digest.getHash());
+        }
+        return hashes;
+    }
+
+    //Хэш содержимого и его начало, по которому CompressionPolicy решает, сжимать ли его
+    private Digest digest(InputStreamSource source) throws IOException {
+        byte[] sample = new byte[compressionPolicy.getSampleSize()];
+        try (InputStream in = source.getInputStream()) {
+            int sampleLength = in.readNBytes(sample, 0, sample.length);
+            return new Digest(sha256(sample, sampleLength, in), sample, sampleLength);
+        }
+    }
+
+    //Пишет содержимое в BlobStore и возвращает новую, еще не сохраненную запись о нем с refCount ссылками
+    private StoredBlob write(InputStreamSource source, long size, String type, Digest digest, long refCount) throws IOException {
+        ContentCodec codec = compressionPolicy.choose(type, size, digest.getSample(), digest.getSampleLength());
+        //getBytes() не используем: он читает весь файл в память.
+        //Вместо этого отдаем поток в BlobStore, который пишет его порциями,
+        //так что на одну загрузку в памяти держится только буфер размером bufferSize
+        try (InputStream in = new BufferedInputStream(source.getInputStream(), bufferSize)) {
+            if (codec == null) {
+                String blobKey = blobStore.put(in, size);
+                return new StoredBlob(digest.getHash(), blobKey, size, refCount);
+            }
+            //сжимается на лету, размер сжатого содержимого известен только после записи
+            //close() освобождает нативную память компрессора, даже если запись в хранилище упала
+            try (CompressingInputStream compressed = new CompressingInputStream(in, codec, bufferSize)) {
+                String blobKey = blobStore.put(compressed, -1);
+                return new StoredBlob(digest.getHash(), blobKey, size, refCount, codec.getEncoding(), compressed.getCompressedSize());
+            }
+        }
+    }
+
+    //Сохраняет записи о только что записанном содержимом. Если то же содержимое одновременно сохранила другая загрузка,
+    //ее запись уже есть: своя копия удаляется из BlobStore, а ссылки добавляются к ее записи
+    private void insert(List<StoredBlob> created) throws IOException {
+        List<StoredBlob> pending = created;
+        while (!pending.isEmpty()) {
+            List<StoredBlob> retry = new ArrayList<>();
+            for (StoredBlob blob : storedBlobRepository.insertAbsent(pending)) {
+                if (storedBlobRepository.incrementRefCounts(List.of(blob.getHash()), blob.getRefCount()) > 0) {
+                    blobStore.delete(blob.getBlobKey());
+                } else {
+                    //чужую запись успели удалить между вставкой и update - вставляем свою еще раз
+                    retry.add(blob);
+                }
+            }
+            pending = retry;
+        }
+    }
+
+    //Убирает одну ссылку на содержимое и удаляет его из BlobStore, если ссылок не осталось
+    public void release(String hash) throws IOException {
+        StoredBlob blob = storedBlobRepository.findById(hash).orElse(null);
+        if (blob == null) {
+            return;
+        }
+        storedBlobRepository.decrementRefCount(hash);
+        if (storedBlobRepository.deleteUnreferenced(hash) > 0) {
+            blobStore.delete(blob.getBlobKey());
+            downloadCache.invalidateContent(hash, blob.getEncoding());
+        }
+    }
+
+    //То же, что release, для пачки ссылок: каждое вхождение хэша в hashes - одна ссылка.
+    //Счетчики уменьшаются одним update на каждое число ссылок (обычно оно одно на всю пачку),
+    //содержимое без ссылок удаляется из таблицы и из BlobStore пачкой
+    public void releaseAll(Collection<String> hashes) throws IOException {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        Map<String, Long> references = hashes.stream()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        Map<Long, List<String>> byCount = references.entrySet().stream()
+                .collect(Collectors.groupingBy(Map.Entry::getValue, Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+        byCount.forEach((count, group) -> storedBlobRepository.decrementRefCounts(group, count));
+        List<StoredBlob> unreferenced = storedBlobRepository.findUnreferencedForUpdate(references.keySet());
+        if (unreferenced.isEmpty()) {
+            return;
+        }
+        storedBlobRepository.deleteUnreferenced(references.keySet());
+        blobStore.deleteAll(unreferenced.stream().map(StoredBlob::getBlobKey).collect(Collectors.toList()));
+        for (StoredBlob blob : unreferenced) {
+            downloadCache.invalidateContent(blob.getHash(), blob.getEncoding());
+        }
+    }
+
+    //Пишет в out length байт исходного содержимого начиная с offset, сжатое содержимое распаковывается на лету.
+    //Своей транзакции не открывает (SUPPORTS): медленный клиент иначе держал бы соединение из пула всю передачу
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void transferTo(String hash, long offset, long length, OutputStream out) throws IOException {
+        StoredBlob blob = getBlob(hash);
+        ContentCodec codec = ContentCodec.forEncoding(blob.getEncoding());
+        read(() -> {
+            if (codec == null) {
+                blobStore.transferTo(blob.getBlobKey(), offset, length, out);
+                return;
+            }
+            //в сжатом потоке нельзя перейти сразу к offset: байты до него распаковываются и пропускаются.
+            //Сжимаются только файлы не больше storage.compression.maxSize, поэтому пропуск ограничен
+            try (InputStream in = codec.decompress(blobStore.open(blob.getBlobKey()))) {
+                skipFully(in, offset);
+                byte[] buffer = new byte[bufferSize];
+                long remaining = length;
+                int read;
+                while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        });
+    }
+
+    //Пишет в out содержимое в том виде, в каком оно лежит в BlobStore, то есть сжатым, без распаковки
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void transferStored(String hash, OutputStream out) throws IOException {
+        StoredBlob blob = getBlob(hash);
+        read(() -> blobStore.transferTo(blob.getBlobKey(), 0, blob.getStoredSize(), out));
+    }
+
+    @Transactional(readOnly = true)
+    public StoredBlob getBlob(String hash) throws FileNotFoundException {
+        return storedBlobRepository.findById(hash)
+                .orElseThrow(() -> new FileNotFoundException("Blob " + hash + " not found"));
+    }
+
+    //Читает содержимое из BlobStore. Транзакция открывается, только если без нее хранилище не читается (large object)
+    private void read(Reading reading) throws IOException {
+        if (!blobStore.readsInTransaction()) {
+            reading.run();
+            return;
+        }
+        try {
+            readTransaction.executeWithoutResult(status -> {
+                try {
+                    reading.run();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private void skipFully(InputStream in, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Offset " + count + " is beyond the end of the content");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    //хэш первых prefixLength байт из prefix и остатка потока
+    private String sha256(byte[] prefix, int prefixLength, InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        digest.update(prefix, 0, prefixLength);
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @lombok.Value
+    private static class Digest {
+        String hash;
+        byte[] sample;
+        int sampleLength;
+    }
+
+    @FunctionalInterface
+    private interface Reading {
+        void run() throws IOException;
+    }
+}
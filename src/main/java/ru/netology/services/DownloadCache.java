@@ -0,0 +1,244 @@
+package ru.netology.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.entities.File;
+import ru.netology.entities.StoredBlob;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Кэш для скачивания часто запрашиваемых файлов: метаданные по (владелец, имя) и содержимое небольших файлов.
+ * Содержимое адресуется хэшем и не меняется, поэтому устареть может только связь имени файла со строкой files:
+ * она сбрасывается при загрузке, удалении и переименовании.
+ * Объем содержимого ограничен в байтах (downloadCache.maximumWeight), вытеснение - W-TinyLFU из Caffeine:
+ * разовый проход по множеству файлов не вытесняет часто скачиваемые.
+ * При downloadCache.offHeap содержимое лежит в direct ByteBuffer вне кучи и не увеличивает паузы GC:
+ * оно пишется из хранилища прямо в этот буфер, без промежуточного массива в куче.
+ * Метрики: cache.gets/cache.evictions{cache=downloads} и cache.served{cache=downloads} - байты, отданные из кэша.
+ */
+@Component
+public class DownloadCache {
+    private static final int COPY_BUFFER_SIZE = 8192;
+    private final Cache<FileKey, File> files;
+    private final Cache<String, StoredBlob> blobs;
+    private final AsyncCache<ContentKey, ByteBuffer> contents;
+    private final Counter servedBytes;
+    //файлы больше maxEntrySize в кэш не попадают и всегда читаются из хранилища потоком
+    private final long maxEntrySize;
+    private final boolean offHeap;
+
+    public DownloadCache(MeterRegistry meterRegistry,
+                         @Value("${downloadCache.maximumWeight}") long maximumWeight,
+                         @Value("${downloadCache.maxEntrySize}") long maxEntrySize,
+                         @Value("${downloadCache.maximumFiles}") long maximumFiles,
+                         @Value("${downloadCache.offHeap}") boolean offHeap) {
+        this.maxEntrySize = Math.min(maxEntrySize, Integer.MAX_VALUE);
+        this.offHeap = offHeap;
+        files = Caffeine.newBuilder()
+                .maximumSize(maximumFiles)
+                .recordStats()
+                .build();
+        blobs = Caffeine.newBuilder()
+                .maximumSize(maximumFiles)
+                .build();
+        contents = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((ContentKey key, ByteBuffer content) -> content.capacity())
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, files, "downloadFiles");
+        CaffeineCacheMetrics.monitor(meterRegistry, contents, "downloads");
+        servedBytes = Counter.builder("cache.served")
+                .baseUnit(BaseUnits.BYTES)
+                .tag("cache", "downloads")
+                .description("Bytes of file content served from the download cache")
+                .register(meterRegistry);
+    }
+
+    //Строка files по владельцу и имени; loader вызывается при промахе. Отсутствующий файл (null) не кэшируется
+    public File getFile(String owner, String filename, Supplier<File> loader) {
+        return files.get(new FileKey(owner, filename), key -> loader.get());
+    }
+
+    public StoredBlob getBlob(String hash, Loader<StoredBlob> loader) throws IOException {
+        try {
+            return blobs.get(hash, key -> {
+                try {
+                    return loader.load();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    public boolean isCacheable(long size) {
+        return size <= maxEntrySize;
+    }
+
+    /**
+     * Пишет в out length байт содержимого начиная с offset.
+     * При промахе содержимое целиком (size байт) пишется через loader в кэш, и только потом отдается.
+     * Параллельные промахи по одному содержимому ждут одну загрузку, а не читают хранилище каждый сам.
+     * encoding - null для исходного содержимого или кодировка, если кэшируются сжатые байты из хранилища.
+     */
+    public void write(String hash, String encoding, long size, ContentWriter loader,
+                      long offset, long length, OutputStream out) throws IOException {
+        //в кэш кладется еще не готовое содержимое, а читается оно уже вне Caffeine: медленное хранилище
+        //не держит блокировку кэша, и поиск других ключей не ждет эту загрузку
+        CompletableFuture<ByteBuffer> loading = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> future = contents.get(new ContentKey(hash, encoding), (key, executor) -> loading);
+        boolean loaded = future == loading;
+        if (loaded) {
+            try {
+                loading.complete(load(size, loader));
+            } catch (IOException | RuntimeException ex) {
+                //неудачная загрузка удаляется из кэша, ждущие ее скачивания получают ту же ошибку
+                loading.completeExceptionally(ex);
+            }
+        }
+        ByteBuffer content;
+        try {
+            content = future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+        //duplicate(): у каждого скачивания своя позиция, сам буфер в кэше общий и не меняется
+        ByteBuffer range = content.duplicate();
+        range.position((int) Math.min(offset, content.capacity()));
+        range.limit((int) Math.min(content.capacity(), offset + length));
+        int count = range.remaining();
+        if (range.hasArray()) {
+            out.write(range.array(), range.arrayOffset() + range.position(), count);
+        } else {
+            byte[] buffer = new byte[Math.min(count, COPY_BUFFER_SIZE)];
+            while (range.hasRemaining()) {
+                int chunk = Math.min(buffer.length, range.remaining());
+                range.get(buffer, 0, chunk);
+                out.write(buffer, 0, chunk);
+            }
+        }
+        if (!loaded) {
+            servedBytes.increment(count);
+        }
+    }
+
+    /**
+     * Сбрасывает строку files для имени. Вызывается при загрузке, удалении и переименовании.
+     * Запись удаляется сразу и еще раз после завершения транзакции: иначе скачивание, пришедшее до коммита,
+     * снова положило бы в кэш старую строку.
+     */
+    public void invalidateFile(String owner, String filename) {
+        FileKey key = new FileKey(owner, filename);
+        files.invalidate(key);
+        afterCompletion(() -> files.invalidate(key));
+    }
+
+    //То же, что invalidateFile, для всех имен владельца, начинающихся с prefix: после массового удаления
+    //или переименования имена заранее не известны, поэтому просматриваются ключи кэша
+    public void invalidateFiles(String owner, String prefix) {
+        Runnable invalidate = () -> files.asMap().keySet()
+                .removeIf(key -> key.getOwner().equals(owner) && key.getFilename().startsWith(prefix));
+        invalidate.run();
+        afterCompletion(invalidate);
+    }
+
+    //Сбрасывает содержимое, удаленное из хранилища: если его загрузят снова, оно получит новый blobKey
+    public void invalidateContent(String hash, String encoding) {
+        Runnable invalidate = () -> {
+            blobs.invalidate(hash);
+            contents.synchronous().invalidate(new ContentKey(hash, null));
+            if (encoding != null) {
+                contents.synchronous().invalidate(new ContentKey(hash, encoding));
+            }
+        };
+        invalidate.run();
+        afterCompletion(invalidate);
+    }
+
+    private void afterCompletion(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    action.run();
+                }
+            });
+        }
+    }
+
+    //Буфер сразу нужного размера (размер содержимого известен заранее), содержимое пишется в него без копий
+    private ByteBuffer load(long size, ContentWriter loader) throws IOException {
+        ByteBuffer content = offHeap ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+        loader.writeTo(new BufferOutputStream(content));
+        if (content.hasRemaining()) {
+            throw new IOException("Content is shorter than " + size + " bytes");
+        }
+        content.flip();
+        return content;
+    }
+
+    private static class BufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        BufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.remaining()) {
+                throw new IOException("Content is longer than " + buffer.capacity() + " bytes");
+            }
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    @lombok.Value
+    private static class FileKey {
+        String owner;
+        String filename;
+    }
+
+    @lombok.Value
+    private static class ContentKey {
+        String hash;
+        String encoding;
+    }
+}
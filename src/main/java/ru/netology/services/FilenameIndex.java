@@ -0,0 +1,265 @@
+package ru.netology.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.dto.FileResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Индекс имен файлов в памяти для поиска по префиксу и подстроке без LIKE '%x%' по таблице files.
+ * Индекс владельца строится при первом поиске из (id, имя, размер) его файлов, дальше меняется вместе с файлами:
+ * загрузка, удаление и переименование применяются к нему после коммита своей транзакции.
+ * Изменения адресуются по id файла и применяются идемпотентно, поэтому изменение, уже попавшее в построенный индекс,
+ * повторно ничего не портит. Индекс владельца живет не дольше search.ttl с момента построения и затем строится заново:
+ * изменения этот срок не продлевают, так что пропущенное изменение исправится при следующем построении.
+ * Регистр букв при поиске не учитывается. Попадания и промахи видны в метриках cache.gets{cache=filenameIndex}.
+ */
+@Component
+public class FilenameIndex {
+    private static final int GRAM = 3;
+    private final Cache<String, OwnerIndex> indexes;
+
+    public FilenameIndex(MeterRegistry meterRegistry, @Value("${search.maximumOwners}") long maximumOwners,
+                         @Value("${search.ttl}") Duration ttl) {
+        indexes = Caffeine.newBuilder()
+                .maximumSize(maximumOwners)
+                //срок считается от построения индекса: computeIfPresent в afterCommit для Caffeine - запись,
+                //и expireAfterWrite продлевал бы индекс владельца, который постоянно что-то меняет, бесконечно
+                .expireAfter(new Expiry<String, OwnerIndex>() {
+                    @Override
+                    public long expireAfterCreate(String key, OwnerIndex value, long currentTime) {
+                        return ttl.toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, OwnerIndex value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, OwnerIndex value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, indexes, "filenameIndex");
+    }
+
+    //Файлы владельца, в имени которых есть query (или которые начинаются с query при prefix), не больше limit,
+    //по имени. loader вызывается, только если индекса владельца еще нет
+    public List<FileResponse> search(String owner, String query, boolean prefix, int limit, Supplier<List<FileResponse>> loader) {
+        //пока индекс строится, изменения этого владельца ждут (Caffeine держит ключ) и применяются к уже готовому индексу
+        OwnerIndex index = indexes.get(owner, key -> new OwnerIndex(loader.get()));
+        return prefix ? index.startingWith(normalize(query), limit) : index.containing(normalize(query), limit);
+    }
+
+    public void added(String owner, List<FileResponse> files) {
+        afterCommit(owner, index -> index.addAll(files));
+    }
+
+    public void removed(String owner, Collection<Long> ids) {
+        afterCommit(owner, index -> index.removeAll(ids));
+    }
+
+    //newNames: id файла -> новое имя, для тех строк, которые изменил update. Файлы ищутся по id, а не по текущему имени:
+    //повторное применение или файл, загруженный под старым именем после переименования, не переименуют лишнего
+    public void renamed(String owner, Map<Long, String> newNames) {
+        afterCommit(owner, index -> index.rename(newNames));
+    }
+
+    //Изменение попадает в индекс только после коммита: откаченная загрузка не должна находиться поиском.
+    //Индекса нет - менять нечего, он построится из базы уже с этим изменением
+    private void afterCommit(String owner, Consumer<OwnerIndex> change) {
+        Runnable apply = () -> indexes.asMap().computeIfPresent(owner, (key, index) -> {
+            change.accept(index);
+            return index;
+        });
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    //ключ сортировки: имя без учета регистра, затем id, чтобы одинаковые имена разных файлов не совпадали.
+    //id дополняется нулями до одной длины, иначе строки сравнивали бы его не как число ("10" < "9")
+    private static String sortKey(String normalized, Long id) {
+        return normalized + '\0' + (id == null ? "" : String.format("%019d", id));
+    }
+
+    private static class OwnerIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, FileResponse> files = new HashMap<>();
+        //для поиска по префиксу: ключи от prefix до prefix + Character.MAX_VALUE
+        private final TreeMap<String, FileResponse> sorted = new TreeMap<>();
+        //триграмма имени -> id файлов, в имени которых она есть. Подстрока длиной от трех символов ищется
+        //только среди файлов с самым редким из ее триграмм, а не перебором всех имен
+        private final Map<String, Set<Long>> grams = new HashMap<>();
+
+        OwnerIndex(List<FileResponse> files) {
+            for (FileResponse file : files) {
+                add(file);
+            }
+        }
+
+        void addAll(List<FileResponse> added) {
+            lock.writeLock().lock();
+            try {
+                for (FileResponse file : added) {
+                    add(file);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void removeAll(Collection<Long> ids) {
+            lock.writeLock().lock();
+            try {
+                for (Long id : ids) {
+                    remove(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        //файла с таким id в индексе нет - его уже удалили, переименовывать нечего
+        void rename(Map<Long, String> newNames) {
+            lock.writeLock().lock();
+            try {
+                for (Map.Entry<Long, String> newName : newNames.entrySet()) {
+                    FileResponse file = files.get(newName.getKey());
+                    if (file != null) {
+                        add(new FileResponse(file.getId(), newName.getValue(), file.getSize()));
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<FileResponse> startingWith(String query, int limit) {
+            lock.readLock().lock();
+            try {
+                List<FileResponse> found = new ArrayList<>();
+                for (FileResponse file : sorted.subMap(query, query + Character.MAX_VALUE).values()) {
+                    if (found.size() >= limit) {
+                        break;
+                    }
+                    found.add(file);
+                }
+                return found;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        List<FileResponse> containing(String query, int limit) {
+            lock.readLock().lock();
+            try {
+                if (query.length() < GRAM) {
+                    //у короткой подстроки нет триграмм: имена перебираются по порядку до limit совпадений
+                    List<FileResponse> found = new ArrayList<>();
+                    for (FileResponse file : sorted.values()) {
+                        if (found.size() >= limit) {
+                            break;
+                        }
+                        if (normalize(file.getFilename()).contains(query)) {
+                            found.add(file);
+                        }
+                    }
+                    return found;
+                }
+                Set<Long> candidates = null;
+                for (String gram : grams(query)) {
+                    Set<Long> ids = grams.get(gram);
+                    if (ids == null) {
+                        return List.of();
+                    }
+                    if (candidates == null || ids.size() < candidates.size()) {
+                        candidates = ids;
+                    }
+                }
+                List<FileResponse> found = new ArrayList<>();
+                for (Long id : candidates) {
+                    FileResponse file = files.get(id);
+                    if (normalize(file.getFilename()).contains(query)) {
+                        found.add(file);
+                    }
+                }
+                found.sort(Comparator.comparing((FileResponse file) -> normalize(file.getFilename()))
+                        .thenComparing(FileResponse::getId, Comparator.nullsFirst(Comparator.naturalOrder())));
+                return found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        //повторное добавление того же id заменяет запись
+        private void add(FileResponse file) {
+            remove(file.getId());
+            String normalized = normalize(file.getFilename());
+            files.put(file.getId(), file);
+            sorted.put(sortKey(normalized, file.getId()), file);
+            for (String gram : grams(normalized)) {
+                grams.computeIfAbsent(gram, key -> new HashSet<>()).add(file.getId());
+            }
+        }
+
+        private void remove(Long id) {
+            FileResponse file = files.remove(id);
+            if (file == null) {
+                return;
+            }
+            String normalized = normalize(file.getFilename());
+            sorted.remove(sortKey(normalized, id));
+            for (String gram : grams(normalized)) {
+                Set<Long> ids = grams.get(gram);
+                if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+
+        private static Set<String> grams(String normalized) {
+            Set<String> result = new HashSet<>();
+            for (int i = 0; i + GRAM <= normalized.length(); i++) {
+                result.add(normalized.substring(i, i + GRAM));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ru.netology.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import ru.netology.storage.BlobStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Blob;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Перенос содержимого файлов, загруженных до хранения по хэшу (StoredBlob).
+ * Сначала байты лежали прямо в files.content (large object), потом - в BlobStore под ключом files.blob_key.
+ * У таких строк нет content_hash, поэтому скачать их нельзя, а Hibernate (ddl-auto: update) старые колонки не удаляет.
+ * Включается storage.legacyMigration.enabled и идет в фоне, не задерживая старт: раз в interval переносится
+ * до batchSize строк, каждая своей транзакцией. Содержимое сохраняется через BlobService
+ * (с дедупликацией и сжатием, как новая загрузка), старая копия удаляется.
+ * Схему приложение не меняет: когда старых данных не остается, колонки удаляются вручную скриптом
+ * db/drop-legacy-content.sql. В новой базе этих колонок нет, и перенос ничего не делает.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.legacyMigration.enabled", havingValue = "true")
+public class LegacyContentMigration {
+    private static final Logger log = LoggerFactory.getLogger(LegacyContentMigration.class);
+    private static final String CONTENT = "content";
+    private static final String BLOB_KEY = "blob_key";
+    private final JdbcTemplate jdbcTemplate;
+    private final BlobService blobService;
+    private final BlobStore blobStore;
+    private final TransactionTemplate transaction;
+    private final String schema;
+    private final String files;
+    private final int batchSize;
+    //последний id, до которого дошел текущий проход по таблице
+    private long lastId;
+    private boolean finished;
+
+    public LegacyContentMigration(JdbcTemplate jdbcTemplate, BlobService blobService, BlobStore blobStore,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${spring.jpa.properties.hibernate.default_schema:}") String schema,
+                                  @Value("${storage.legacyMigration.batchSize}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.blobService = blobService;
+        this.blobStore = blobStore;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.schema = schema;
+        this.files = StringUtils.hasText(schema) ? schema + ".files" : "files";
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${storage.legacyMigration.interval}", initialDelayString = "${storage.legacyMigration.interval}")
+    public void migrateBatch() {
+        if (finished) {
+            return;
+        }
+        //тип колонки content: oid в PostgreSQL, у large object его нужно освобождать отдельно
+        String contentType = columnType(CONTENT);
+        boolean hasBlobKey = columnType(BLOB_KEY) != null;
+        if (contentType == null && !hasBlobKey) {
+            finished = true;
+            return;
+        }
+        String legacy = legacyCondition(contentType != null, hasBlobKey);
+        List<Long> ids = jdbcTemplate.queryForList("select id from " + files + " where content_hash is null and (" + legacy + ")"
+                + " and id > ? order by id limit ?", Long.class, lastId, batchSize);
+        if (ids.isEmpty()) {
+            if (lastId == 0) {
+                finished = true;
+                log.info("All legacy content is migrated, columns {} and {} can be dropped with db/drop-legacy-content.sql",
+                        CONTENT, BLOB_KEY);
+            }
+            //проход закончен: следующий начнется сначала и повторит строки, которые не удалось перенести
+            lastId = 0;
+            return;
+        }
+        lastId = ids.get(ids.size() - 1);
+        int migrated = 0;
+        for (Long id : ids) {
+            try {
+                if (Boolean.TRUE.equals(transaction.execute(status -> migrate(id, contentType, hasBlobKey)))) {
+                    migrated++;
+                }
+            } catch (RuntimeException ex) {
+                //строка остается как была, следующий проход попробует снова
+                log.warn("Could not migrate content of file {}", id, ex);
+            }
+        }
+        log.info("Migrated content of {} of {} legacy files", migrated, ids.size());
+    }
+
+    //Переносит одну строку. Строка блокируется и проверяется заново: ее могли удалить или уже перенести
+    private boolean migrate(Long id, String contentType, boolean hasBlobKey) {
+        String columns = "size, type" + (contentType != null ? ", " + CONTENT : "") + (hasBlobKey ? ", " + BLOB_KEY : "");
+        List<LegacyFile> rows = jdbcTemplate.query("select " + columns + " from " + files
+                        + " where id = ? and content_hash is null for update",
+                (rs, rowNum) -> new LegacyFile(rs.getLong("size"), rs.getString("type"),
+                        contentType != null ? rs.getBlob(CONTENT) : null,
+                        hasBlobKey ? rs.getString(BLOB_KEY) : null), id);
+        if (rows.isEmpty()) {
+            return false;
+        }
+        LegacyFile row = rows.get(0);
+        try {
+            if (row.getContent() != null) {
+                //large object читается только внутри транзакции, в которой его получили, - то есть этой
+                InputStreamSource source = () -> {
+                    try {
+                        return row.getContent().getBinaryStream();
+                    } catch (SQLException ex) {
+                        throw new IOException(ex);
+                    }
+                };
+                String hash = blobService.store(source, row.getSize(), row.getType());
+                //обнуление колонки oid не освобождает large object
+                if (contentType.equalsIgnoreCase("oid")) {
+                    jdbcTemplate.queryForList("select lo_unlink(" + CONTENT + ") from " + files + " where id = ?", id);
+                }
+                jdbcTemplate.update("update " + files + " set content_hash = ?, " + CONTENT + " = null where id = ?", hash, id);
+                return true;
+            }
+            if (row.getBlobKey() == null) {
+                return false;
+            }
+            String hash = blobService.store(() -> blobStore.open(row.getBlobKey()), row.getSize(), row.getType());
+            jdbcTemplate.update("update " + files + " set content_hash = ?, " + BLOB_KEY + " = null where id = ?", hash, id);
+            blobStore.delete(row.getBlobKey());
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private String legacyCondition(boolean hasContent, boolean hasBlobKey) {
+        if (hasContent && hasBlobKey) {
+            return CONTENT + " is not null or " + BLOB_KEY + " is not null";
+        }
+        return (hasContent ? CONTENT : BLOB_KEY) + " is not null";
+    }
+
+    //тип колонки таблицы files или null, если колонки нет
+    private String columnType(String column) {
+        return jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet columns = metaData.getColumns(null, identifier(metaData, schema), identifier(metaData, "files"),
+                    identifier(metaData, column))) {
+                return columns.next() ? columns.getString("TYPE_NAME") : null;
+            }
+        });
+    }
+
+    //имена без кавычек PostgreSQL хранит в нижнем регистре, H2 - в верхнем
+    private String identifier(DatabaseMetaData metaData, String name) throws SQLException {
+        if (!StringUtils.hasText(name)) {
+            return null;
+        }
+        return metaData.storesUpperCaseIdentifiers() ? name.toUpperCase(Locale.ROOT) : name.toLowerCase(Locale.ROOT);
+    }
+
+    @lombok.Value
+    private static class LegacyFile {
+        long size;
+        String type;
+        Blob content;
+        String blobKey;
+    }
+}
@@ -1,68 +1,348 @@
 package ru.netology.services;
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import ru.netology.admission.StorageQuota;
 import ru.netology.dto.FileResponse;
 import ru.netology.entities.File;
+import ru.netology.entities.StoredBlob;
+import ru.netology.model.FileCursor;
+import ru.netology.model.FileRef;
 import ru.netology.repositories.FileRepository;
-import ru.netology.security.JwtTokenUtils;
+import ru.netology.repositories.UserRepository;
+import ru.netology.storage.CompressionPolicy;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+//Все методы получают владельца (owner) уже определенным: его берет контроллер из SecurityContext,
+//куда JwtTokenFilter кладет пользователя после проверки токена, так что токен здесь повторно не разбирается
+//@Timed: время каждой операции в метрике storage.operations{method=...}.
+//Объем загрузок и скачиваний - storage.transfer{direction=upload|download}, в байтах
 @Service
 @Transactional
+@Timed("storage.operations")
 public class StorageService {
+    //id и хэши в одном "in (...)": у PostgreSQL не больше 32767 параметров на запрос
+    private static final int BULK_CHUNK_SIZE = 10_000;
     private final FileRepository fileRepository;
-    private final JwtTokenUtils jwtTokenUtils;
+    private final BlobService blobService;
+    private final UserRepository userRepository;
+    private final DownloadCache downloadCache;
+    private final CompressionPolicy compressionPolicy;
+    private final StorageQuota storageQuota;
+    private final FilenameIndex filenameIndex;
+    private final DistributionSummary uploadedBytes;
+    private final DistributionSummary downloadedBytes;
 
-    public StorageService(FileRepository fileRepository, JwtTokenUtils jwtTokenUtils) {
+    public StorageService(FileRepository fileRepository, BlobService blobService, UserRepository userRepository,
+                          DownloadCache downloadCache, CompressionPolicy compressionPolicy, StorageQuota storageQuota,
+                          FilenameIndex filenameIndex, MeterRegistry meterRegistry) {
         this.fileRepository = fileRepository;
-        this.jwtTokenUtils = jwtTokenUtils;
+        this.blobService = blobService;
+        this.userRepository = userRepository;
+        this.downloadCache = downloadCache;
+        this.compressionPolicy = compressionPolicy;
+        this.storageQuota = storageQuota;
+        this.filenameIndex = filenameIndex;
+        this.uploadedBytes = transferSummary(meterRegistry, "upload");
+        this.downloadedBytes = transferSummary(meterRegistry, "download");
     }
 
-    public List<FileResponse> getFiles(String authToken, int limit) {
-        //.substring Возвращает строку, которая является подстрокой этой строки.
-        //Подстрока начинается с символа в указанном индексе и продолжается до конца этой строки.
-        //Примеры: «несчастливый». подстрока (2) возвращает «счастливый»
+    private static DistributionSummary transferSummary(MeterRegistry meterRegistry, String direction) {
+        return DistributionSummary.builder("storage.transfer")
+                .baseUnit(BaseUnits.BYTES)
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+
+    //Версия списка файлов владельца. Меняется вместе с любым изменением списка в той же транзакции,
+    //поэтому одинаковая версия означает одинаковый список
+    @Transactional(readOnly = true)
+    public long getFilesVersion(String owner) {
+        return userRepository.getFilesVersion(owner);
+    }
+
+    //cursor - позиция, после которой начинается страница, или null для первой страницы
+    public List<FileResponse> getFiles(String owner, int limit, FileCursor cursor) {
+        if (limit < 1) {
+            return List.of();
+        }
+        //Возвращает список файлов по юзеру: limit выполняется в базе, читаются только имя и размер
+        if (cursor == null) {
+            return fileRepository.findFilesByOwner(owner, PageRequest.of(0, limit));
+        }
+        return fileRepository.findFilesByOwnerAfter(owner, cursor.getFilename(), cursor.getId(), PageRequest.of(0, limit));
+    }
+
+    //Поиск по имени без учета регистра: файлы, имя которых начинается с query (prefix) или содержит query.
+    //Отвечает индекс в памяти, база читается только при построении индекса владельца, поэтому своей транзакции
+    //метод не открывает (SUPPORTS), как и скачивание
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<FileResponse> searchFiles(String owner, String query, boolean prefix, int limit) {
+        if (limit < 1) {
+            return List.of();
+        }
+        return filenameIndex.search(owner, query, prefix, limit, () -> fileRepository.findAllFilesByOwner(owner));
+    }
+
+    public void uploadFile(String owner, String filename, MultipartFile file) throws IOException {
+        uploadFile(owner, filename, file.getContentType(), file.getSize(), file);
+    }
+
+    //content должен отдавать поток с начала при каждом вызове getInputStream(): содержимое читается дважды
+    public void uploadFile(String owner, String filename, String type, long size, InputStreamSource content) throws IOException {
+        //квота проверяется до записи содержимого: чтение одной строки пользователя
+        storageQuota.reserve(owner, size);
+        String contentType = contentType(type);
+        //содержимое сохраняется по хэшу: если такое уже загружалось, повторно оно не пишется
+        String contentHash = blobService.store(content, size, contentType);
+        //сохраняем метаданные файла в бд вместе с информацией о его владельце: owner
+        File file = new File(filename, contentType, size, contentHash, owner);
+        fileRepository.save(file);
+        userRepository.recordFilesChange(owner, size);
+        filenameIndex.added(owner, List.of(new FileResponse(file.getId(), filename, size)));
+        downloadCache.invalidateFile(owner, filename);
+        uploadedBytes.record(size);
+    }
+
+    //Загрузка пачки файлов одной транзакцией, имя каждого файла - его originalFilename.
+    //Строки files получают id из последовательности блоками, поэтому при коммите они вставляются пачками
+    //по hibernate.jdbc.batch_size, а версия списка владельца меняется один раз на всю пачку
+    public void uploadFiles(String owner, List<MultipartFile> files) throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+        long totalSize = files.stream().mapToLong(MultipartFile::getSize).sum();
+        storageQuota.reserve(owner, totalSize);
+        List<String> hashes = blobService.storeAll(files);
+        List<File> rows = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            rows.add(new File(file.getOriginalFilename(), contentType(file.getContentType()), file.getSize(), hashes.get(i), owner));
+        }
+        fileRepository.saveAll(rows);
+        userRepository.recordFilesChange(owner, totalSize);
+        filenameIndex.added(owner, rows.stream()
+                .map(row -> new FileResponse(row.getId(), row.getFilename(), row.getSize()))
+                .collect(Collectors.toList()));
+        for (MultipartFile file : files) {
+            downloadCache.invalidateFile(owner, file.getOriginalFilename());
+            uploadedBytes.record(file.getSize());
+        }
+    }
+
+    public void deleteFile(String owner, String filename) throws IOException {
+        deleteFiles(owner, List.of(filename));
+    }
+
+    //Массовое удаление по именам. Строки files удаляются set-based запросами по id, сущности File не загружаются,
+    //содержимое освобождается пачкой: оно удалится, когда на него не останется ссылок. Возвращает число удаленных файлов
+    public int deleteFiles(String owner, Collection<String> filenames) throws IOException {
+        if (filenames.isEmpty()) {
+            return 0;
+        }
+        int removed = removeFiles(owner, fileRepository.findRefsByOwnerAndFilenameIn(owner, filenames));
+        if (removed > 0) {
+            for (String filename : filenames) {
+                downloadCache.invalidateFile(owner, filename);
+            }
+        }
+        return removed;
+    }
 
-        //Нижний метод возвращает юзера по токену
-        String owner = jwtTokenUtils.getUsernameFromToken(authToken.substring(7));
-        //Возвращает список файлов по юзеру
-        Optional<List<File>> fileList = fileRepository.findAllByOwner(owner);
-        return fileList.get().stream().map(fr -> new FileResponse(fr.getFilename(), fr.getSize()))
-                .limit(limit)
-                .collect(Collectors.toList());
+    //Массовое удаление всех файлов владельца, имя которых начинается с prefix
+    public int deleteFilesByPrefix(String owner, String prefix) throws IOException {
+        int removed = removeFiles(owner, fileRepository.findRefsByOwnerAndPrefix(owner, prefix, likePrefix(prefix)));
+        if (removed > 0) {
+            downloadCache.invalidateFiles(owner, prefix);
+        }
+        return removed;
     }
 
-    public void uploadFile(String authToken, String filename, MultipartFile file) throws IOException {
-        //получаем владельца по токену
-        String owner = jwtTokenUtils.getUsernameFromToken(authToken.substring(7));
-        //сохраняем файл в бд вместе с информацией о его владельце: owner
-        fileRepository.save(new File(filename, file.getContentType(), file.getSize(), file.getBytes(), owner));
+    private int removeFiles(String owner, List<FileRef> refs) throws IOException {
+        if (refs.isEmpty()) {
+            return 0;
+        }
+        for (int from = 0; from < refs.size(); from += BULK_CHUNK_SIZE) {
+            List<FileRef> chunk = refs.subList(from, Math.min(from + BULK_CHUNK_SIZE, refs.size()));
+            fileRepository.deleteByIds(chunk.stream().map(FileRef::getId).collect(Collectors.toList()));
+            blobService.releaseAll(chunk.stream().map(FileRef::getContentHash).collect(Collectors.toList()));
+        }
+        userRepository.recordFilesChange(owner, -refs.stream().mapToLong(FileRef::getSize).sum());
+        filenameIndex.removed(owner, refs.stream().map(FileRef::getId).collect(Collectors.toList()));
+        return refs.size();
     }
 
-    public void deleteFile(String authToken, String filename) {
-        //получаем юзера из токена
-        String owner = jwtTokenUtils.getUsernameFromToken(authToken.substring(7));
-        //удаляем файл
-        fileRepository.removeByFilenameAndOwner(filename, owner);
+    //Методы скачивания не открывают свою транзакцию (SUPPORTS): при попадании в DownloadCache
+    //не нужно даже брать соединение из пула, а при промахе транзакцию открывает BlobService
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public File downloadFile(String owner, String filename) {
+        //получаем файл: часто скачиваемые берутся из кэша без запроса к базе
+        return downloadCache.getFile(owner, filename, () -> fileRepository.findByFilenameAndOwner(filename, owner));
     }
 
-    public File downloadFile(String authToken, String filename) {
-        //получаем юзера из токена
-        String owner = jwtTokenUtils.getUsernameFromToken(authToken.substring(7));
-        //получаем файл
-        return fileRepository.findByFilenameAndOwner(filename, owner);
+    //Пишет в out length байт содержимого файла начиная с offset.
+    //Небольшие файлы отдаются из DownloadCache, большие читаются из хранилища только в пределах диапазона,
+    //так что докачка и запросы Range не читают файл целиком
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void writeFileContent(File file, long offset, long length, OutputStream out) throws IOException {
+        String hash = file.getContentHash();
+        if (downloadCache.isCacheable(file.getSize())) {
+            downloadCache.write(hash, null, file.getSize(),
+                    content -> blobService.transferTo(hash, 0, file.getSize(), content), offset, length, out);
+        } else {
+            //для large object поток должен читаться внутри транзакции, ее открывает BlobService
+            blobService.transferTo(hash, offset, length, out);
+        }
+        downloadedBytes.record(length);
     }
 
-    public void renameFile(String authToken, String filename, String newFilename) {
-        //получаем юзера из токена
-        String owner = jwtTokenUtils.getUsernameFromToken(authToken.substring(7));
+    //Файлы владельца с именами из filenames, в порядке filenames и без повторов.
+    //Если какого-то имени нет - 404
+    @Transactional(readOnly = true)
+    public List<File> getFilesByName(String owner, List<String> filenames) {
+        Map<String, File> byName = new HashMap<>();
+        for (File file : fileRepository.findByOwnerAndFilenameIn(owner, filenames)) {
+            byName.putIfAbsent(file.getFilename(), file);
+        }
+        Set<String> seen = new HashSet<>();
+        List<File> files = new ArrayList<>();
+        for (String filename : filenames) {
+            File file = byName.get(filename);
+            if (file == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File " + filename + " not found");
+            }
+            if (seen.add(filename)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    //Страница файлов владельца в порядке списка (getFiles), целыми сущностями
+    @Transactional(readOnly = true)
+    public List<File> getFilePage(String owner, int limit, FileCursor cursor) {
+        if (limit < 1) {
+            return List.of();
+        }
+        if (cursor == null) {
+            return fileRepository.findByOwner(owner, PageRequest.of(0, limit));
+        }
+        return fileRepository.findByOwnerAfter(owner, cursor.getFilename(), cursor.getId(), PageRequest.of(0, limit));
+    }
+
+    //Пишет в out ZIP-архив из files. Файлы читаются из хранилища по одному и сразу сжимаются в out,
+    //так что архив не собирается ни в памяти, ни во временном файле: в памяти только буферы одного файла.
+    //Уже сжатые форматы кладутся без сжатия (уровень NO_COMPRESSION): для них CRC не нужно считать заранее,
+    //как для записи STORED, и содержимое не приходится читать дважды.
+    //Файлы с повторяющимся именем (в архиве имя должно быть уникальным) берутся один раз
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void writeArchive(List<File> files, OutputStream out) throws IOException {
+        //close освобождает память Deflater вне кучи, а сам out (поток ответа) остается открытым
+        try (ZipOutputStream zip = new ZipOutputStream(StreamUtils.nonClosing(out))) {
+            Set<String> names = new HashSet<>();
+            for (File file : files) {
+                if (!names.add(file.getFilename())) {
+                    continue;
+                }
+                zip.setLevel(compressionPolicy.isPrecompressed(file.getType()) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+                zip.putNextEntry(new ZipEntry(file.getFilename()));
+                writeFileContent(file, 0, file.getSize(), zip);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    //Как содержимое файла лежит в хранилище: алгоритм сжатия и размер сжатых байт
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public StoredBlob getStoredContent(File file) throws IOException {
+        return downloadCache.getBlob(file.getContentHash(), () -> blobService.getBlob(file.getContentHash()));
+    }
+
+    //Пишет в out содержимое файла в том виде, в каком оно хранится (сжатым), для ответа с Content-Encoding
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void writeStoredContent(File file, OutputStream out) throws IOException {
+        String hash = file.getContentHash();
+        StoredBlob stored = getStoredContent(file);
+        if (downloadCache.isCacheable(stored.getStoredSize())) {
+            downloadCache.write(hash, stored.getEncoding(), stored.getStoredSize(),
+                    content -> blobService.transferStored(hash, content), 0, stored.getStoredSize(), out);
+        } else {
+            blobService.transferStored(hash, out);
+        }
+        downloadedBytes.record(stored.getStoredSize());
+    }
+
+    public void renameFile(String owner, String filename, String newFilename) {
+        //id файлов, которые изменит update, нужны индексу имен
+        List<FileResponse> files = fileRepository.findFilesByOwnerAndFilename(owner, filename);
         //переименовываем файл
-        fileRepository.renameFile(filename, newFilename, owner);
+        if (fileRepository.renameFile(filename, newFilename, owner) > 0) {
+            userRepository.incrementFilesVersion(owner);
+            downloadCache.invalidateFile(owner, filename);
+            downloadCache.invalidateFile(owner, newFilename);
+            filenameIndex.renamed(owner, files.stream().collect(Collectors.toMap(FileResponse::getId, file -> newFilename)));
+        }
+    }
+
+    //Переименовывает все файлы владельца с префиксом prefix одним update: "docs/a.txt" -> newPrefix + "a.txt".
+    //Возвращает число переименованных файлов
+    public int renameFilesByPrefix(String owner, String prefix, String newPrefix) {
+        String pattern = likePrefix(prefix);
+        //те же строки, что выберет update, тем же условием LIKE: новые имена для индекса считаются по ним
+        List<FileResponse> files = fileRepository.findFilesByOwnerAndPrefix(owner, prefix, pattern);
+        int renamed = fileRepository.renameByPrefix(owner, prefix, pattern, newPrefix, prefix.length() + 1);
+        if (renamed > 0) {
+            userRepository.incrementFilesVersion(owner);
+            downloadCache.invalidateFiles(owner, prefix);
+            downloadCache.invalidateFiles(owner, newPrefix);
+            filenameIndex.renamed(owner, files.stream().collect(Collectors.toMap(FileResponse::getId,
+                    file -> newPrefix + file.getFilename().substring(prefix.length()))));
+        }
+        return renamed;
+    }
+
+    //шаблон LIKE для имен, начинающихся с prefix: символы шаблона в самом префиксе экранируются '!'
+    static String likePrefix(String prefix) {
+        return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    //Тип содержимого, который отдается в Content-Type при скачивании. Тип присылает клиент, поэтому пустой
+    //или неразборчивый тип заменяется на application/octet-stream: иначе скачивание файла падало бы при разборе
+    public static String contentType(String type) {
+        if (type == null || type.isBlank()) {
+            return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+        try {
+            MediaType.parseMediaType(type);
+            return type;
+        } catch (InvalidMediaTypeException ex) {
+            return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package ru.netology.services;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+//Фоновая уборка брошенных загрузок: без нее части незавершенных сессий навсегда остались бы в хранилище.
+//Вынесена из UploadSessionService, чтобы вызов шел через транзакционный прокси сервиса
+@Component
+public class UploadSessionCleaner {
+    private final UploadSessionService uploadSessionService;
+
+    public UploadSessionCleaner(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @Scheduled(fixedDelayString = "${upload.cleanupInterval}", initialDelayString = "${upload.cleanupInterval}")
+    public void removeStaleSessions() throws IOException {
+        uploadSessionService.removeStaleSessions();
+    }
+}
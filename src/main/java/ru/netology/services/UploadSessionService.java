@@ -0,0 +1,238 @@
+package ru.netology.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import ru.netology.admission.StorageQuota;
+import ru.netology.dto.UploadSessionResponse;
+import ru.netology.entities.UploadChunk;
+import ru.netology.entities.UploadSession;
+import ru.netology.repositories.UploadChunkRepository;
+import ru.netology.repositories.UploadSessionRepository;
+import ru.netology.storage.BlobStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Докачиваемая загрузка больших файлов частями.
+ * Клиент открывает сессию, присылает части с номерами в любом порядке (каждая сразу пишется в BlobStore),
+ * может спросить, какие части уже приняты, и после обрыва дослать только недостающие.
+ * При commit части читаются подряд одним потоком и сохраняются как обычный файл, в память целиком файл не попадает.
+ */
+@Service
+@Transactional
+public class UploadSessionService {
+    private final UploadSessionRepository sessionRepository;
+    private final UploadChunkRepository chunkRepository;
+    private final BlobStore blobStore;
+    private final StorageService storageService;
+    private final StorageQuota storageQuota;
+    private final TransactionTemplate transaction;
+    @Value("${upload.chunkSize}")
+    private int defaultChunkSize;
+    @Value("${upload.maxChunkSize}")
+    private int maxChunkSize;
+    //сессия без новых частей дольше этого времени считается брошенной
+    @Value("${upload.sessionTtl}")
+    private Duration sessionTtl;
+
+    public UploadSessionService(UploadSessionRepository sessionRepository, UploadChunkRepository chunkRepository,
+                                BlobStore blobStore, StorageService storageService, StorageQuota storageQuota,
+                                PlatformTransactionManager transactionManager) {
+        this.sessionRepository = sessionRepository;
+        this.chunkRepository = chunkRepository;
+        this.blobStore = blobStore;
+        this.storageService = storageService;
+        this.storageQuota = storageQuota;
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    //chunkSize может быть null - тогда берется размер части из настроек
+    public UploadSessionResponse openSession(String owner, String filename, String type, long size, Integer chunkSize) {
+        int actualChunkSize = chunkSize == null ? defaultChunkSize : chunkSize;
+        if (size < 0 || actualChunkSize < 1 || actualChunkSize > maxChunkSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid size or chunk size");
+        }
+        //файл, который не поместится в квоту, отклоняется до того, как клиент пришлет части.
+        //Окончательно квота проверяется при commit, когда файл сохраняется
+        storageQuota.check(owner, size);
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), owner, filename, type, size,
+                actualChunkSize, Instant.now());
+        sessionRepository.save(session);
+        return toResponse(session, List.of());
+    }
+
+    @Transactional(readOnly = true)
+    public UploadSessionResponse getSession(String owner, String id) {
+        UploadSession session = findSession(owner, id);
+        return toResponse(session, chunkRepository.findBySessionIdOrderByChunkIndex(id));
+    }
+
+    //Сохраняет часть с номером index. Повторная отправка той же части заменяет предыдущую.
+    //Тело части приходит от клиента по сети и может читаться долго, поэтому общей транзакции нет (NOT_SUPPORTED):
+    //соединение из пула берется только на короткие запросы к базе, а не на всю передачу.
+    //Хранилище, которое пишет внутри транзакции (large object), получает часть из временного файла, а не из сети
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void putChunk(String owner, String id, int index, long length, InputStream content) throws IOException {
+        UploadSession session = findSession(owner, id);
+        if (index < 0 || index >= chunkCount(session) || length != expectedChunkSize(session, index)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid chunk index or size");
+        }
+        String blobKey = blobStore.writesInTransaction() ? putSpooled(content, length) : blobStore.put(content, length);
+        String replaced;
+        try {
+            replaced = transaction.execute(status -> saveChunk(owner, id, index, length, blobKey));
+        } catch (RuntimeException ex) {
+            //часть не сохранена (сессию уже собрали или удалили, та же часть пришла одновременно):
+            //ее содержимое больше ни на что не ссылается
+            blobStore.delete(blobKey);
+            if (ex instanceof DataIntegrityViolationException) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Chunk " + index + " is being uploaded concurrently", ex);
+            }
+            throw ex;
+        }
+        //старое содержимое удаляем только после того, как часть уже ссылается на новое
+        if (replaced != null) {
+            blobStore.delete(replaced);
+        }
+    }
+
+    //Короткая транзакция после записи содержимого: сессия блокируется, поэтому части одной сессии, commit и abort
+    //не пересекаются, а часть для только что собранной или удаленной сессии получает 404.
+    //Возвращает ключ замененного содержимого или null
+    private String saveChunk(String owner, String id, int index, long length, String blobKey) {
+        UploadSession session = findLockedSession(owner, id);
+        UploadChunk chunk = chunkRepository.findBySessionIdAndChunkIndex(id, index).orElse(null);
+        String replaced = null;
+        if (chunk == null) {
+            chunk = new UploadChunk(id, index, blobKey, length);
+        } else {
+            replaced = chunk.getBlobKey();
+            chunk.setBlobKey(blobKey);
+            chunk.setSize(length);
+        }
+        chunkRepository.saveAndFlush(chunk);
+        //сессия загружена в этой транзакции, изменение сохранится при коммите
+        session.setUpdatedAt(Instant.now());
+        return replaced;
+    }
+
+    //Часть не больше maxChunkSize, поэтому временный файл небольшой и удаляется сразу после записи
+    private String putSpooled(InputStream content, long length) throws IOException {
+        Path spool = Files.createTempFile("chunk", ".tmp");
+        try {
+            Files.copy(content, spool, StandardCopyOption.REPLACE_EXISTING);
+            try (InputStream in = Files.newInputStream(spool)) {
+                return blobStore.put(in, length);
+            }
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    //Собирает файл из всех частей. Если каких-то частей нет, сессия остается открытой для докачки
+    public void commit(String owner, String id) throws IOException {
+        UploadSession session = findLockedSession(owner, id);
+        List<UploadChunk> chunks = chunkRepository.findBySessionIdOrderByChunkIndex(id);
+        if (chunks.size() != chunkCount(session)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is incomplete");
+        }
+        //части открываются по очереди, по мере чтения: одновременно открыт только один поток
+        InputStreamSource content = () -> new SequenceInputStream(openChunks(chunks));
+        storageService.uploadFile(owner, session.getFilename(), session.getType(), session.getSize(), content);
+        remove(session, chunks);
+    }
+
+    public void abort(String owner, String id) throws IOException {
+        UploadSession session = findLockedSession(owner, id);
+        remove(session, chunkRepository.findBySessionIdOrderByChunkIndex(id));
+    }
+
+    //Удаляет брошенные сессии вместе с уже принятыми частями, возвращает число удаленных сессий
+    public int removeStaleSessions() throws IOException {
+        Instant cutoff = Instant.now().minus(sessionTtl);
+        int removed = 0;
+        for (UploadSession candidate : sessionRepository.findByUpdatedAtBefore(cutoff)) {
+            //пока сессия не заблокирована, в нее могла прийти часть: проверяем активность еще раз
+            UploadSession session = sessionRepository.findLockedByIdAndOwner(candidate.getId(), candidate.getOwner()).orElse(null);
+            if (session != null && session.getUpdatedAt().isBefore(cutoff)) {
+                remove(session, chunkRepository.findBySessionIdOrderByChunkIndex(session.getId()));
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private UploadSession findSession(String owner, String id) {
+        return sessionRepository.findByIdAndOwner(id, owner)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found"));
+    }
+
+    private UploadSession findLockedSession(String owner, String id) {
+        return sessionRepository.findLockedByIdAndOwner(id, owner)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found"));
+    }
+
+    private void remove(UploadSession session, List<UploadChunk> chunks) throws IOException {
+        for (UploadChunk chunk : chunks) {
+            blobStore.delete(chunk.getBlobKey());
+        }
+        chunkRepository.deleteAll(chunks);
+        sessionRepository.delete(session);
+    }
+
+    private Enumeration<InputStream> openChunks(List<UploadChunk> chunks) {
+        Iterator<UploadChunk> iterator = chunks.iterator();
+        return new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return blobStore.open(iterator.next().getBlobKey());
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
+    }
+
+    private long chunkCount(UploadSession session) {
+        return (session.getSize() + session.getChunkSize() - 1) / session.getChunkSize();
+    }
+
+    //все части полного размера, кроме, возможно, последней
+    private long expectedChunkSize(UploadSession session, int index) {
+        long start = (long) index * session.getChunkSize();
+        return Math.min(session.getChunkSize(), session.getSize() - start);
+    }
+
+    private UploadSessionResponse toResponse(UploadSession session, List<UploadChunk> chunks) {
+        List<Integer> received = chunks.stream().map(UploadChunk::getChunkIndex).collect(Collectors.toList());
+        return new UploadSessionResponse(session.getId(), session.getFilename(), session.getSize(),
+                session.getChunkSize(), received);
+    }
+}
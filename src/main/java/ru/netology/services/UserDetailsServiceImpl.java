@@ -1,5 +1,6 @@
 package ru.netology.services;
 
+import io.micrometer.core.annotation.Timed;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -47,6 +48,7 @@ public class UserDetailsServiceImpl implements UserDetailsService {
      * См User. эталонную реализацию (которую вы, возможно, захотите расширить или использовать в своем коде)
      */
     @Override
+    @Timed("auth.user.load")
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
         return userRepository
                 .findByUsername(username)
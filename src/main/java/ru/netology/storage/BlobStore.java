@@ -0,0 +1,59 @@
+package ru.netology.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * Хранилище содержимого файлов.
+ * Таблица files хранит только метаданные и ключ содержимого (blobKey), а сами байты живут в реализации этого интерфейса.
+ * Реализация выбирается свойством storage.type.
+ */
+public interface BlobStore {
+
+    /**
+     * Сохраняет содержимое потока и возвращает ключ, по которому его можно прочитать.
+     * Поток читается порциями, целиком в память не загружается.
+     * size равен -1, если размер заранее неизвестен (например, содержимое сжимается на лету).
+     */
+    String put(InputStream content, long size) throws IOException;
+
+    /**
+     * Открывает содержимое на чтение. Вызывающий отвечает за закрытие потока.
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * Копирует в выходной поток length байт содержимого начиная с offset.
+     * Читается только этот диапазон, а не все содержимое. Реализации могут делать это эффективнее, чем open() + копирование.
+     */
+    void transferTo(String key, long offset, long length, OutputStream out) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    /**
+     * Удаляет содержимое по всем ключам. Реализации, которые умеют удалять пачкой, делают это одним запросом.
+     */
+    default void deleteAll(Collection<String> keys) throws IOException {
+        for (String key : keys) {
+            delete(key);
+        }
+    }
+
+    /**
+     * Читается ли содержимое только внутри транзакции.
+     * Транзакция держит соединение из пула все время передачи, поэтому хранилища, которым она не нужна, читаются без нее.
+     */
+    default boolean readsInTransaction() {
+        return false;
+    }
+
+    /**
+     * Пишется ли содержимое внутри транзакции (и соединения из пула) все время, пока читается поток put.
+     * Таким хранилищам медленный поток (например, тело запроса от клиента) нужно сначала сохранить локально.
+     */
+    default boolean writesInTransaction() {
+        return false;
+    }
+}
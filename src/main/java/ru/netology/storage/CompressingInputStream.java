@@ -0,0 +1,91 @@
+package ru.netology.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Поток, который читает исходные байты и отдает их уже сжатыми.
+ * BlobStore.put принимает InputStream, поэтому сжатие встраивается между загрузкой и хранилищем
+ * без временного файла: в памяти держится только одна порция исходных и сжатых байт.
+ */
+public class CompressingInputStream extends InputStream {
+    private final InputStream source;
+    private final byte[] chunk;
+    private final PendingBuffer pending = new PendingBuffer();
+    private final OutputStream compressor;
+    private int position;
+    private boolean finished;
+    private long compressedSize;
+
+    public CompressingInputStream(InputStream source, ContentCodec codec, int bufferSize) throws IOException {
+        this.source = source;
+        this.chunk = new byte[bufferSize];
+        this.compressor = codec.compress(pending);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        //сжатые байты появляются порциями: пока их нет, подаем компрессору следующую порцию исходных
+        while (position == pending.size()) {
+            if (finished) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, pending.size() - position);
+        System.arraycopy(pending.array(), position, b, off, count);
+        position += count;
+        compressedSize += count;
+        return count;
+    }
+
+    private void fill() throws IOException {
+        pending.reset();
+        position = 0;
+        int read = source.read(chunk);
+        if (read == -1) {
+            //close() дописывает в pending остаток сжатых данных и конец фрейма
+            compressor.close();
+            finished = true;
+        } else {
+            compressor.write(chunk, 0, read);
+        }
+    }
+
+    //сколько сжатых байт уже отдано; после чтения до конца - размер сжатого содержимого
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    //Компрессор закрывается и при незаконченном чтении (ошибка загрузки, клиент ушел):
+    //zstd и lz4 держат нативную память, которую освобождает только close()
+    @Override
+    public void close() throws IOException {
+        try (source) {
+            if (!finished) {
+                finished = true;
+                compressor.close();
+            }
+        } finally {
+            pending.reset();
+            position = 0;
+        }
+    }
+
+    private static class PendingBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.netology.storage;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Решает, сжимать ли содержимое и чем.
+ * По типу файла: текстовые форматы сжимаются zstd, уже сжатые (картинки, видео, архивы) не сжимаются, остальное - LZ4.
+ * Затем по образцу: начало файла пробно сжимается LZ4, и если выигрыш меньше порога, файл хранится как есть.
+ * Большие файлы не сжимаются: в сжатом потоке нельзя перейти к offset, и Range распаковывал бы все до него.
+ */
+@Component
+public class CompressionPolicy {
+    private static final List<String> TEXT_PREFIXES = List.of("text/");
+    private static final Set<String> TEXT_TYPES = Set.of("application/json", "application/xml", "application/javascript",
+            "application/x-ndjson", "application/csv", "application/sql", "application/yaml", "application/x-yaml");
+    private static final List<String> COMPRESSED_PREFIXES = List.of("image/", "video/", "audio/");
+    private static final Set<String> COMPRESSED_TYPES = Set.of("application/zip", "application/gzip", "application/x-gzip",
+            "application/x-bzip2", "application/x-xz", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/zstd", "application/pdf");
+    private final LZ4Compressor sampleCompressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final boolean enabled;
+    //файлы меньше minSize не сжимаются: выигрыш меньше накладных расходов
+    private final long minSize;
+    //файлы больше maxSize не сжимаются, чтобы Range по ним оставался дешевым
+    private final long maxSize;
+    private final int sampleSize;
+    //сжимаем, только если образец сжался хотя бы до maxRatio от исходного размера
+    private final double maxRatio;
+
+    public CompressionPolicy(@Value("${storage.compression.enabled}") boolean enabled,
+                             @Value("${storage.compression.minSize}") long minSize,
+                             @Value("${storage.compression.maxSize}") long maxSize,
+                             @Value("${storage.compression.sampleSize}") int sampleSize,
+                             @Value("${storage.compression.maxRatio}") double maxRatio) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.sampleSize = sampleSize;
+        this.maxRatio = maxRatio;
+    }
+
+    public int getSampleSize() {
+        return enabled ? sampleSize : 0;
+    }
+
+    //sample - первые sampleLength байт содержимого. Возвращает null, если содержимое хранится без сжатия
+    public ContentCodec choose(String type, long size, byte[] sample, int sampleLength) {
+        if (!enabled || size < minSize || size > maxSize) {
+            return null;
+        }
+        ContentCodec codec = codecForType(type);
+        if (codec == null || !isCompressible(sample, sampleLength)) {
+            return null;
+        }
+        return codec;
+    }
+
+    //Уже сжатый формат (картинки, видео, архивы): повторное сжатие ничего не даст
+    public boolean isPrecompressed(String type) {
+        return type != null && codecForType(type) == null;
+    }
+
+    ContentCodec codecForType(String type) {
+        if (type == null) {
+            return ContentCodec.LZ4;
+        }
+        //параметры вроде "; charset=UTF-8" на выбор не влияют
+        String mediaType = type.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        if (TEXT_TYPES.contains(mediaType) || mediaType.endsWith("+json") || mediaType.endsWith("+xml")
+                || TEXT_PREFIXES.stream().anyMatch(mediaType::startsWith)) {
+            return ContentCodec.ZSTD;
+        }
+        if (COMPRESSED_TYPES.contains(mediaType) || COMPRESSED_PREFIXES.stream().anyMatch(mediaType::startsWith)) {
+            return null;
+        }
+        return ContentCodec.LZ4;
+    }
+
+    boolean isCompressible(byte[] sample, int sampleLength) {
+        if (sampleLength == 0) {
+            return false;
+        }
+        byte[] compressed = new byte[sampleCompressor.maxCompressedLength(sampleLength)];
+        int compressedLength = sampleCompressor.compress(sample, 0, sampleLength, compressed, 0, compressed.length);
+        return compressedLength <= sampleLength * maxRatio;
+    }
+}
@@ -0,0 +1,70 @@
+package ru.netology.storage;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Алгоритмы сжатия содержимого в хранилище.
+ * Оба пишут стандартный frame-формат, поэтому сохраненные байты можно отдать клиенту как есть
+ * с заголовком Content-Encoding, равным encoding.
+ */
+public enum ContentCodec {
+    //лучшее сжатие, для текстовых типов
+    ZSTD("zstd") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new ZstdOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    },
+    //очень быстрое сжатие и распаковка, для остальных сжимаемых данных
+    LZ4("lz4") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new LZ4FrameOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in);
+        }
+    };
+
+    //значение колонки blobs.encoding и заголовка Content-Encoding
+    private final String encoding;
+
+    ContentCodec(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    //null для содержимого, сохраненного без сжатия
+    public static ContentCodec forEncoding(String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        for (ContentCodec codec : values()) {
+            if (codec.encoding.equals(encoding)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown content encoding " + encoding);
+    }
+}
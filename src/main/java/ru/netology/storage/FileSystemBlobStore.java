@@ -0,0 +1,105 @@
+package ru.netology.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Хранит содержимое в файлах на локальном диске.
+ * Ключ - случайный UUID, файл лежит в root/ab/cd/abcd..., чтобы ни в одном каталоге не скапливались миллионы записей.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "filesystem")
+public class FileSystemBlobStore implements BlobStore {
+    private final Path root;
+
+    public FileSystemBlobStore(@Value("${storage.filesystem.root}") Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public String put(InputStream content, long size) throws IOException {
+        String key = UUID.randomUUID().toString();
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        //пишем во временный файл и переименовываем, чтобы читатели никогда не увидели недописанное содержимое
+        Path tmp = Files.createTempFile(target.getParent(), key, ".tmp");
+        try {
+            Files.copy(content, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        //если транзакция с метаданными откатится, файл никому не нужен
+        afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK, target);
+        return key;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public void transferTo(String key, long offset, long length, OutputStream out) throws IOException {
+        //FileChannel.transferTo отдает копирование ядру там, где это возможно, без промежуточных буферов в куче,
+        //и читает только запрошенный диапазон
+        try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = offset;
+            long end = Math.min(channel.size(), offset + length);
+            while (position < end) {
+                position += channel.transferTo(position, end - position, target);
+            }
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        //удаляем только после коммита: при откате строка в files снова будет ссылаться на этот файл
+        Path path = resolve(key);
+        if (!afterCompletion(TransactionSynchronization.STATUS_COMMITTED, path)) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    Path resolve(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    //регистрирует удаление файла по завершении текущей транзакции с указанным статусом.
+    //Возвращает false, если транзакции нет
+    private boolean afterCompletion(int status, Path path) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int completionStatus) {
+                if (completionStatus == status) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+}
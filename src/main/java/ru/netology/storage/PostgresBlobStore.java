@@ -0,0 +1,108 @@
+package ru.netology.storage;
+
+import org.hibernate.engine.jdbc.BlobProxy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.netology.entities.FileContent;
+import ru.netology.repositories.FileContentRepository;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Хранит содержимое в large object PostgreSQL (таблица file_contents).
+ * Large object доступен только внутри транзакции, поэтому методы вызываются из транзакционного StorageService.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "postgres", matchIfMissing = true)
+public class PostgresBlobStore implements BlobStore {
+    private final FileContentRepository fileContentRepository;
+    @Value("${storage.bufferSize}")
+    private int bufferSize;
+
+    public PostgresBlobStore(FileContentRepository fileContentRepository) {
+        this.fileContentRepository = fileContentRepository;
+    }
+
+    @Override
+    public String put(InputStream content, long size) {
+        //драйвер сам пишет поток в large object порциями
+        return fileContentRepository.save(new FileContent(BlobProxy.generateProxy(content, size))).getId().toString();
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        try {
+            return getData(key).getBinaryStream();
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public void transferTo(String key, long offset, long length, OutputStream out) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        InputStream range;
+        try {
+            //драйвер делает seek внутри large object, байты до offset не читаются
+            range = getData(key).getBinaryStream(offset + 1, length);
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        }
+        //копируем порциями по bufferSize: в памяти не бывает больше одного буфера независимо от размера файла
+        try (InputStream in = range) {
+            byte[] buffer = new byte[bufferSize];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    @Override
+    public boolean readsInTransaction() {
+        return true;
+    }
+
+    //put пишет large object внутри транзакции save(), соединение занято, пока читается поток
+    @Override
+    public boolean writesInTransaction() {
+        return true;
+    }
+
+    private Blob getData(String key) throws FileNotFoundException {
+        return fileContentRepository.findById(Long.valueOf(key))
+                .orElseThrow(() -> new FileNotFoundException("Blob " + key + " not found"))
+                .getData();
+    }
+
+    //Строка и ее large object удаляются одной транзакцией: иначе large object без строки остался бы в базе навсегда
+    @Override
+    @Transactional
+    public void delete(String key) {
+        deleteAll(List.of(key));
+    }
+
+    //один lo_unlink и один delete ... where id in (...) вместо выборки и удаления каждой строки
+    @Override
+    @Transactional
+    public void deleteAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<Long> ids = keys.stream().map(Long::valueOf).collect(Collectors.toList());
+        fileContentRepository.unlinkData(ids);
+        fileContentRepository.deleteAllByIdInBatch(ids);
+    }
+}
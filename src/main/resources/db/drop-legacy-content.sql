@@ -0,0 +1,6 @@
+-- Удаляет колонки files.content и files.blob_key, в которых прежние версии хранили содержимое файлов.
+-- Выполняется вручную и один раз, когда LegacyContentMigration сообщила в логе, что старых файлов не осталось:
+-- приложение само схему не меняет. Перед запуском запрос должен вернуть 0:
+--   select count(*) from netology.files where content_hash is null and (content is not null or blob_key is not null);
+ALTER TABLE netology.files DROP COLUMN IF EXISTS content;
+ALTER TABLE netology.files DROP COLUMN IF EXISTS blob_key;
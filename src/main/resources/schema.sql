@@ -0,0 +1,4 @@
+-- Таблица files раньше получала id из bigserial, то есть из последовательности files_id_seq с шагом 1.
+-- Теперь Hibernate берет id из нее же блоками по 50 (allocationSize в File), и шаг должен совпадать.
+-- Выполняется до запуска Hibernate при каждом старте: в новой базе последовательности еще нет, а повторно шаг не меняется
+ALTER SEQUENCE IF EXISTS netology.files_id_seq INCREMENT BY 50;
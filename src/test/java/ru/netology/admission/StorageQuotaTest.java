@@ -0,0 +1,78 @@
+package ru.netology.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.model.StorageUsage;
+import ru.netology.repositories.FileRepository;
+import ru.netology.repositories.UserRepository;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.*;
+
+class StorageQuotaTest {
+    private final String OWNER = "user";
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    //квота по умолчанию 100 байт
+    private final StorageQuota storageQuota = new StorageQuota(userRepository, fileRepository,
+            mock(PlatformTransactionManager.class), 100, meterRegistry);
+
+    @Test
+    void reserveTest() {
+        given(userRepository.findUsage(OWNER)).willReturn(Optional.of(new StorageUsage(50L, null)));
+
+        storageQuota.reserve(OWNER, 50);
+        //51 байт уже не помещается: 507, ничего не записано
+        QuotaExceededException ex = assertThrows(QuotaExceededException.class, () -> storageQuota.reserve(OWNER, 51));
+        assertEquals(HttpStatus.INSUFFICIENT_STORAGE, ex.getStatus());
+        assertEquals(1.0, meterRegistry.get("storage.quota.rejected").counter().count());
+    }
+
+    @Test
+    void userQuotaTest() {
+        //своя квота пользователя важнее квоты по умолчанию
+        given(userRepository.findUsage(OWNER)).willReturn(Optional.of(new StorageUsage(50L, 1000L)));
+
+        storageQuota.reserve(OWNER, 500);
+    }
+
+    @Test
+    void reservedUntilTransactionCompletesTest() {
+        given(userRepository.findUsage(OWNER)).willReturn(Optional.of(new StorageUsage(50L, null)));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            storageQuota.reserve(OWNER, 40);
+            //первая загрузка еще не закоммичена, но ее байты уже заняты: вторая не помещается
+            assertThrows(QuotaExceededException.class, () -> storageQuota.reserve(OWNER, 20));
+            assertThrows(QuotaExceededException.class, () -> storageQuota.check(OWNER, 20));
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        //после отката первой загрузки место снова свободно
+        storageQuota.reserve(OWNER, 20);
+    }
+
+    @Test
+    void countsUsageOnceTest() {
+        //пользователь создан до появления used_bytes: объем считается по files один раз и сохраняется
+        given(userRepository.findUsage(OWNER)).willReturn(Optional.of(new StorageUsage(null, null)));
+        given(userRepository.findUsageForUpdate(OWNER)).willReturn(Optional.of(new StorageUsage(null, null)));
+        given(fileRepository.sumSizeByOwner(OWNER)).willReturn(70L);
+
+        assertThrows(QuotaExceededException.class, () -> storageQuota.reserve(OWNER, 40));
+
+        verify(userRepository, times(1)).setUsedBytes(OWNER, 70L);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.netology.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferBudgetTest {
+    private final String OWNER = "user";
+    private final String OTHER_OWNER = "other";
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    //всего 100 байт, на пользователя 60, ждем не дольше 50 мс
+    private final TransferBudget transferBudget = new TransferBudget(100, 60, 10, Duration.ofMillis(50), Duration.ofSeconds(5), meterRegistry);
+
+    @Test
+    void userBudgetTest() {
+        TransferBudget.Permit permit = transferBudget.acquire(OWNER, 40);
+
+        //второй передаче пользователя не хватает его бюджета: 503 с Retry-After
+        TransferRejectedException ex = assertThrows(TransferRejectedException.class, () -> transferBudget.acquire(OWNER, 30));
+        assertEquals("5", ex.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1.0, meterRegistry.get("transfer.rejected").counter().count());
+        //у другого пользователя свой бюджет
+        transferBudget.acquire(OTHER_OWNER, 30).close();
+
+        permit.close();
+        //повторное закрытие не освобождает бюджет второй раз
+        permit.close();
+        assertEquals(0, transferBudget.getInFlight());
+        transferBudget.acquire(OWNER, 30).close();
+    }
+
+    @Test
+    void globalBudgetTest() {
+        transferBudget.acquire(OWNER, 60);
+        transferBudget.acquire(OTHER_OWNER, 30);
+
+        assertEquals(90.0, meterRegistry.get("transfer.inflight").gauge().value());
+        assertThrows(TransferRejectedException.class, () -> transferBudget.acquire("third", 20));
+    }
+
+    @Test
+    void waitForReleaseTest() throws Exception {
+        TransferBudget budget = new TransferBudget(100, 100, 10, Duration.ofSeconds(5), Duration.ofSeconds(5), meterRegistry);
+        TransferBudget.Permit permit = budget.acquire(OWNER, 80);
+
+        //передача ждет, пока первая не закончится, и проходит без отказа
+        CompletableFuture<TransferBudget.Permit> waiting = CompletableFuture.supplyAsync(() -> budget.acquire(OWNER, 50));
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        permit.close();
+
+        waiting.get(5, TimeUnit.SECONDS).close();
+        assertEquals(0, budget.getInFlight(OWNER));
+    }
+
+    @Test
+    void maxTransfersTest() {
+        //объема хватает, но передач уже столько, сколько потоков в пуле: третья получает 503, а не место в очереди
+        TransferBudget budget = new TransferBudget(100, 100, 2, Duration.ofMillis(50), Duration.ofSeconds(5), meterRegistry);
+        TransferBudget.Permit permit = budget.acquire(OWNER, 1);
+        budget.acquire(OTHER_OWNER, 1);
+
+        assertThrows(TransferRejectedException.class, () -> budget.acquire("third", 1));
+        permit.close();
+        budget.acquire("third", 1);
+    }
+
+    @Test
+    void oversizedTransferTest() {
+        //передача больше бюджета занимает его целиком, а не ждет вечно
+        TransferBudget.Permit permit = transferBudget.acquire(OWNER, 1000);
+
+        assertEquals(60, transferBudget.getInFlight(OWNER));
+        permit.close();
+    }
+}
@@ -0,0 +1,51 @@
+package ru.netology.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferPermitFilterTest {
+    private final TransferBudget transferBudget = new TransferBudget(100, 60, 10, Duration.ofMillis(50), Duration.ofSeconds(5), new SimpleMeterRegistry());
+    private final TransferPermitFilter filter = new TransferPermitFilter();
+    private final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/file");
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Test
+    void releaseWithoutAsyncTest() throws ServletException, IOException {
+        //разрешение получено, но асинхронная обработка не началась (например, пул отказал): тело уже не запустится
+        filter.doFilter(request, response, (req, res) ->
+                req.setAttribute(TransferPermitFilter.PERMIT_ATTRIBUTE, transferBudget.acquire("user", 40)));
+
+        assertEquals(0, transferBudget.getInFlight());
+    }
+
+    @Test
+    void releaseOnAsyncCompleteTest() throws ServletException, IOException {
+        request.setAsyncSupported(true);
+        filter.doFilter(request, response, (req, res) -> {
+            req.setAttribute(TransferPermitFilter.PERMIT_ATTRIBUTE, transferBudget.acquire("user", 40));
+            req.startAsync();
+        });
+        //тело пишется в пуле: разрешение занято до окончания обработки
+        assertEquals(40, transferBudget.getInFlight());
+
+        //обработка закончилась, а тело так и не запустилось (клиент ушел, таймаут): разрешение все равно закрыто
+        request.getAsyncContext().complete();
+
+        assertEquals(0, transferBudget.getInFlight());
+    }
+
+    @Test
+    void withoutPermitTest() throws ServletException, IOException {
+        filter.doFilter(request, response, (req, res) -> res.getWriter().write("ok"));
+
+        assertEquals("ok", response.getContentAsString());
+    }
+}
@@ -0,0 +1,47 @@
+package ru.netology.benchmarks;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import ru.netology.CloudStorageApplication;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+//Приложение поверх встроенной H2 и хранилища содержимого во временном каталоге:
+//бенчмарки сервисов запускаются без PostgreSQL и сети
+class EmbeddedStorage implements AutoCloseable {
+    private final Path root;
+    private final ConfigurableApplicationContext context;
+
+    EmbeddedStorage() throws IOException {
+        root = Files.createTempDirectory("storage-benchmark");
+        context = new SpringApplicationBuilder(CloudStorageApplication.class)
+                //аргументами командной строки, чтобы перекрыть настройки PostgreSQL из application.yaml
+                .run(
+                        //у каждого запуска своя база, чтобы запуски внутри одного форка не видели данные друг друга
+                        "--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_ON_EXIT=FALSE;INIT=CREATE SCHEMA IF NOT EXISTS netology",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                        "--spring.jpa.show-sql=false",
+                        "--spring.devtools.restart.enabled=false",
+                        "--storage.type=filesystem",
+                        "--storage.filesystem.root=" + root,
+                        "--logging.level.root=warn");
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(root);
+    }
+}
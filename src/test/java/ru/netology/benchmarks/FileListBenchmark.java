@@ -0,0 +1,53 @@
+package ru.netology.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.netology.dto.FileResponse;
+import ru.netology.entities.File;
+import ru.netology.repositories.FileRepository;
+import ru.netology.services.StorageService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//StorageService.getFiles: запрос страницы и отображение строк в FileResponse.
+//У владельца FILES файлов, страница limit - как /list?limit=...
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileListBenchmark {
+    static final int FILES = 10000;
+    static final String OWNER = "user";
+
+    @Param({"10", "100", "1000"})
+    public int limit;
+
+    private EmbeddedStorage storage;
+    private StorageService storageService;
+
+    @Setup
+    public void setUp() throws IOException {
+        storage = new EmbeddedStorage();
+        storageService = storage.getBean(StorageService.class);
+        //только метаданные: список файлов не читает их содержимое
+        List<File> files = new ArrayList<>(FILES);
+        for (int i = 0; i < FILES; i++) {
+            files.add(new File(String.format("file-%05d.txt", i), "text/plain", 1024L, "hash-" + i, OWNER));
+        }
+        storage.getBean(FileRepository.class).saveAll(files);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+    }
+
+    @Benchmark
+    public List<FileResponse> getFiles() {
+        return storageService.getFiles(OWNER, limit, null);
+    }
+}
@@ -0,0 +1,68 @@
+package ru.netology.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import ru.netology.entities.User;
+import ru.netology.model.SecurityUser;
+import ru.netology.security.JwtTokenUtils;
+
+import java.util.concurrent.TimeUnit;
+
+//Выдача и проверка токенов JwtTokenUtils.
+//validateCached - повторный запрос с тем же токеном (кэш проверенных токенов),
+//validateUncached - первый запрос с токеном: TOKENS разных токенов по кругу через кэш на один токен,
+//так что подпись проверяется каждый раз
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+    static final String SIGNING_KEY = "ymLTU8rq83j4fmJZj60wh4OrMNuntIj4fmJ";
+    static final int TOKENS = 1024;
+
+    private JwtTokenUtils cachingUtils;
+    private JwtTokenUtils uncachedUtils;
+    private Authentication authentication;
+    private String token;
+    private String[] tokens;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        cachingUtils = new JwtTokenUtils(SIGNING_KEY, 10000, new SimpleMeterRegistry());
+        uncachedUtils = new JwtTokenUtils(SIGNING_KEY, 1, new SimpleMeterRegistry());
+        authentication = authentication("user");
+        token = cachingUtils.generateToken(authentication);
+        tokens = new String[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            tokens[i] = uncachedUtils.generateToken(authentication("user" + i));
+        }
+    }
+
+    private static Authentication authentication(String username) {
+        return new UsernamePasswordAuthenticationToken(new SecurityUser(new User(username, "password", "USER")), null);
+    }
+
+    @Benchmark
+    public String generate() {
+        return cachingUtils.generateToken(authentication);
+    }
+
+    @Benchmark
+    public String validateCached() {
+        cachingUtils.validateToken(token);
+        return cachingUtils.getUsernameFromToken(token);
+    }
+
+    @Benchmark
+    public String validateUncached() {
+        String token = tokens[next];
+        next = (next + 1) % TOKENS;
+        uncachedUtils.validateToken(token);
+        return uncachedUtils.getUsernameFromToken(token);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.netology.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import ru.netology.entities.User;
+import ru.netology.model.SecurityUser;
+import ru.netology.repositories.UserRepository;
+import ru.netology.security.JwtTokenFilter;
+import ru.netology.security.JwtTokenUtils;
+import ru.netology.security.TokenRevocationStore;
+import ru.netology.security.UserDetailsCache;
+import ru.netology.services.UserDetailsServiceImpl;
+
+import javax.servlet.FilterChain;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+//Путь запроса через JwtTokenFilter: разбор заголовка, проверка отзыва и токена, пользователь из кэша,
+//заполнение SecurityContext. Пользователь и токен в кэшах, как у уже работающего клиента
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtTokenFilterBenchmark {
+    private final FilterChain chain = (request, response) -> {
+    };
+
+    private JwtTokenFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        User user = new User("user", "password", "USER");
+        UserRepository userRepository = Mockito.mock(UserRepository.class);
+        Mockito.when(userRepository.findByUsername("user")).thenReturn(Optional.of(user));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        JwtTokenUtils jwtTokenUtils = new JwtTokenUtils(JwtBenchmark.SIGNING_KEY, 10000, meterRegistry);
+        UserDetailsCache userDetailsCache = new UserDetailsCache(new UserDetailsServiceImpl(userRepository), meterRegistry,
+                10000, Duration.ofMinutes(5));
+        filter = new JwtTokenFilter(jwtTokenUtils, userDetailsCache, new TokenRevocationStore(jwtTokenUtils));
+
+        String token = jwtTokenUtils.generateToken(new UsernamePasswordAuthenticationToken(new SecurityUser(user), null));
+        request = new MockHttpServletRequest("GET", "/list");
+        request.addHeader("auth-token", "Bearer " + token);
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public Authentication filter() throws Exception {
+        filter.doFilter(request, response, chain);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return authentication;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.netology.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.ByteArrayResource;
+import ru.netology.entities.File;
+import ru.netology.services.StorageService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Загрузка и скачивание содержимого через StorageService размером 1 КБ, 1 МБ и 100 МБ.
+//Содержимое случайное (не сжимается), хранилище - файловая система во временном каталоге.
+//upload каждый раз загружает новое содержимое (меняются первые байты), чтобы не срабатывала дедупликация по хэшу,
+//и удаляет файл после замера. download читает один и тот же файл: 1 КБ и 1 МБ после первого чтения отдаются из DownloadCache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class TransferBenchmark {
+    static final String OWNER = "user";
+    static final String TYPE = "application/octet-stream";
+
+    @Param({"1024", "1048576", "104857600"})
+    public int size;
+
+    private EmbeddedStorage storage;
+    private StorageService storageService;
+    private byte[] content;
+    private File downloaded;
+
+    @Setup
+    public void setUp() throws IOException {
+        storage = new EmbeddedStorage();
+        storageService = storage.getBean(StorageService.class);
+        content = new byte[size];
+        new Random(42).nextBytes(content);
+        storageService.uploadFile(OWNER, "download.bin", TYPE, size, new ByteArrayResource(content));
+        downloaded = storageService.downloadFile(OWNER, "download.bin");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+    }
+
+    @Benchmark
+    public void upload(Uploads uploads) throws IOException {
+        long n = ++uploads.count;
+        for (int i = 0; i < Long.BYTES && i < size; i++) {
+            content[i] = (byte) (n >>> (8 * i));
+        }
+        storageService.uploadFile(OWNER, "upload.bin", TYPE, size, new ByteArrayResource(content));
+    }
+
+    @Benchmark
+    public void download(Blackhole blackhole) throws IOException {
+        storageService.writeFileContent(downloaded, 0, size, new BlackholeOutputStream(blackhole));
+    }
+
+    //Счетчик загрузок и удаление загруженного файла. Удаление не входит в замер upload,
+    //но не дает хранилищу расти от итерации к итерации
+    @State(Scope.Thread)
+    public static class Uploads {
+        long count;
+
+        @TearDown(Level.Invocation)
+        public void removeUploaded(TransferBenchmark benchmark) throws IOException {
+            benchmark.storageService.deleteFile(OWNER, "upload.bin");
+        }
+    }
+
+    //поглощает скачанные байты, не давая JIT выбросить их чтение
+    static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+            blackhole.consume(len);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.netology.configs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import ru.netology.admission.TransferRejectedException;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncConfigTest {
+    //один поток и одно место в очереди
+    private final AsyncConfig asyncConfig = new AsyncConfig(1, 1, Duration.ofSeconds(5));
+    private final ThreadPoolTaskExecutor executor = asyncConfig.transferExecutor();
+
+    @BeforeEach
+    void setUp() {
+        executor.initialize();
+    }
+    private final CountDownLatch finish = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        finish.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void saturatedPoolTest() {
+        CallableProcessingInterceptor interceptor = asyncConfig.rejectedTransfers(executor);
+        //поток занят медленным клиентом, вторая задача ждет в очереди
+        executor.execute(this::awaitFinish);
+        assertDoesNotThrow(() -> interceptor.beforeConcurrentHandling(null, () -> null));
+        executor.execute(this::awaitFinish);
+
+        //места нет: запрос получает 503 с Retry-After до начала обработки, а не ждет без конца
+        TransferRejectedException rejected = assertThrows(TransferRejectedException.class,
+                () -> interceptor.beforeConcurrentHandling(null, () -> null));
+        assertEquals(503, rejected.getRawStatusCode());
+        assertEquals("5", rejected.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        //и сам пул задачу не принял бы
+        assertThrows(TaskRejectedException.class, () -> executor.execute(this::awaitFinish));
+    }
+
+    private void awaitFinish() {
+        try {
+            finish.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
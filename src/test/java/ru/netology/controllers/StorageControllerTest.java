@@ -0,0 +1,139 @@
+package ru.netology.controllers;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.netology.admission.TransferBudget;
+import ru.netology.admission.TransferPermitFilter;
+import ru.netology.entities.File;
+import ru.netology.entities.StoredBlob;
+import ru.netology.entities.User;
+import ru.netology.model.SecurityUser;
+import ru.netology.services.StorageService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.given;
+
+@ExtendWith(MockitoExtension.class)
+class StorageControllerTest {
+    @Mock
+    StorageService storageService;
+    private final TransferBudget transferBudget = new TransferBudget(100, 60, 10, Duration.ofMillis(50), Duration.ofSeconds(5), new SimpleMeterRegistry());
+    private final SecurityUser user = new SecurityUser(new User("user", "password", "ROLE_USER"));
+    private final File file = new File("hello.txt", "text/plain", 11L, "hash", "user");
+    private StorageController storageController;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+    @BeforeEach
+    void setUp() {
+        storageController = new StorageController(storageService, transferBudget, 10);
+        //контроллер кладет разрешение скачивания в атрибут текущего запроса
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void downloadStoredTest() throws IOException {
+        given(storageService.downloadFile("user", "hello.txt")).willReturn(file);
+        given(storageService.getStoredContent(file)).willReturn(new StoredBlob("hash", "key", 11L, 1L, "zstd", 5L));
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.set(HttpHeaders.ACCEPT_ENCODING, "gzip, zstd");
+
+        ResponseEntity<StreamingResponseBody> response = storageController.downloadFile(user, "hello.txt", requestHeaders);
+
+        //клиент назвал zstd сам: сжатые байты уходят без распаковки
+        assertEquals("zstd", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(5L, response.getHeaders().getContentLength());
+        //диапазоны по сжатому представлению не поддерживаются
+        assertFalse(response.getHeaders().containsKey(HttpHeaders.ACCEPT_RANGES));
+    }
+
+    @Test
+    void downloadWildcardEncodingTest() throws IOException {
+        given(storageService.downloadFile("user", "hello.txt")).willReturn(file);
+        given(storageService.getStoredContent(file)).willReturn(new StoredBlob("hash", "key", 11L, 1L, "zstd", 5L));
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.set(HttpHeaders.ACCEPT_ENCODING, "*");
+
+        ResponseEntity<StreamingResponseBody> response = storageController.downloadFile(user, "hello.txt", requestHeaders);
+
+        //* не означает, что клиент понимает zstd: содержимое отдается распакованным
+        assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(11L, response.getHeaders().getContentLength());
+    }
+
+    @Test
+    void downloadInvalidTypeTest() throws IOException {
+        //тип сохранен до проверки при загрузке и не разбирается
+        File legacy = new File("hello.txt", "not a type", 11L, "hash", "user");
+        given(storageService.downloadFile("user", "hello.txt")).willReturn(legacy);
+
+        ResponseEntity<StreamingResponseBody> response = storageController.downloadFile(user, "hello.txt", new HttpHeaders());
+        response.getBody().writeTo(new ByteArrayOutputStream());
+
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, response.getHeaders().getContentType());
+        //бюджет передачи освобожден после записи тела
+        assertEquals(0, transferBudget.getInFlight());
+    }
+
+    @Test
+    void downloadOverlappingRangesTest() throws IOException {
+        given(storageService.downloadFile("user", "hello.txt")).willReturn(file);
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.set(HttpHeaders.RANGE, "bytes=0-,0-,2-5,0-");
+
+        ResponseEntity<StreamingResponseBody> response = storageController.downloadFile(user, "hello.txt", requestHeaders);
+
+        //пересекающиеся диапазоны склеены в один: файл отдается и занимает бюджет один раз
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 0-10/11", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(11L, response.getHeaders().getContentLength());
+        assertEquals(11L, transferBudget.getInFlight());
+    }
+
+    @Test
+    void downloadAdjacentRangesTest() throws IOException {
+        given(storageService.downloadFile("user", "hello.txt")).willReturn(file);
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.set(HttpHeaders.RANGE, "bytes=8-9,0-1,2-3");
+
+        ResponseEntity<StreamingResponseBody> response = storageController.downloadFile(user, "hello.txt", requestHeaders);
+
+        //0-1 и 2-3 идут подряд и склеиваются, 8-9 остается отдельной частью
+        assertTrue(response.getHeaders().getContentType().toString().startsWith("multipart/byteranges"));
+        assertEquals(6L, transferBudget.getInFlight());
+    }
+
+    @Test
+    void downloadPermitInRequestTest() throws IOException {
+        given(storageService.downloadFile("user", "hello.txt")).willReturn(file);
+
+        storageController.downloadFile(user, "hello.txt", new HttpHeaders());
+
+        //тело не запускалось: разрешение лежит в запросе, и TransferPermitFilter закроет его сам
+        assertEquals(11L, transferBudget.getInFlight());
+        ((TransferBudget.Permit) request.getAttribute(TransferPermitFilter.PERMIT_ATTRIBUTE)).close();
+        assertEquals(0, transferBudget.getInFlight());
+    }
+}
@@ -0,0 +1,246 @@
+package ru.netology.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import ru.netology.entities.User;
+import ru.netology.repositories.UserRepository;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Нагрузочный тест: приложение на случайном порту поверх встроенной H2 и хранилища во временном каталоге,
+//load.users клиентов (у каждого свой пользователь) в течение load.duration выполняют операции из load.mix
+//с файлами размеров из load.fileSizes. Печатает и пишет в target/load-report.txt пропускную способность,
+//p50/p99 задержки по операциям и пик кучи.
+//Запуск: mvn -Pload test -Dload.users=16 -Dload.duration=60s -Dload.fileSizes=1024:50,1048576:50
+//load.minThroughput (операций в секунду) и load.maxP99Millis - проверяемые заявки по производительности, 0 - не проверять
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1;INIT=CREATE SCHEMA IF NOT EXISTS netology",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "storage.type=filesystem",
+        "logging.level.root=warn"})
+class CloudStorageLoadTest {
+    private static final String PASSWORD = "password";
+    private static final int PREFIX_LENGTH = 16;
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${load.users:8}")
+    private int users;
+    @Value("${load.duration:30s}")
+    private Duration duration;
+    @Value("${load.mix:login:5,list:35,download:30,upload:15,rename:10,delete:5}")
+    private String mix;
+    @Value("${load.fileSizes:1024:60,65536:30,1048576:10}")
+    private String fileSizes;
+    @Value("${load.requestTimeout:60s}")
+    private Duration requestTimeout;
+    @Value("${load.listLimit:100}")
+    private int listLimit;
+    @Value("${load.minThroughput:0}")
+    private double minThroughput;
+    @Value("${load.maxP99Millis:0}")
+    private double maxP99Millis;
+
+    @DynamicPropertySource
+    static void storageRoot(DynamicPropertyRegistry registry) throws IOException {
+        Path root = Files.createTempDirectory("storage-load");
+        registry.add("storage.filesystem.root", root::toString);
+    }
+
+    @Test
+    void mixedWorkload() throws Exception {
+        WeightedMix<Operation> operations = new WeightedMix<>(mix, Operation::parse);
+        WeightedMix<Integer> sizes = new WeightedMix<>(fileSizes, Integer::valueOf);
+        //общее случайное содержимое для каждого размера, уникальность файлу дает префикс
+        Map<Integer, byte[]> contents = new HashMap<>();
+        Random random = new Random(42);
+        for (int size : sizes.values()) {
+            byte[] content = new byte[Math.max(0, size - PREFIX_LENGTH)];
+            random.nextBytes(content);
+            contents.put(size, content);
+        }
+        String passwordHash = passwordEncoder.encode(PASSWORD);
+        for (int i = 0; i < users; i++) {
+            userRepository.save(new User("load-user-" + i, passwordHash, "USER"));
+        }
+
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        LoadReport report = new LoadReport();
+        ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor();
+        heapSampler.scheduleAtFixedRate(report::sampleHeap, 0, 100, TimeUnit.MILLISECONDS);
+        ExecutorService workers = Executors.newFixedThreadPool(users);
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            Worker worker = new Worker(i, new LoadClient(httpClient, objectMapper, "http://localhost:" + port, requestTimeout),
+                    report, operations, sizes, contents);
+            results.add(workers.submit(() -> worker.run(deadline)));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        workers.shutdown();
+        heapSampler.shutdown();
+        report.sampleHeap();
+
+        String text = String.format("users=%d duration=%s mix=%s fileSizes=%s%n", users, duration, mix, fileSizes)
+                + report.format(elapsed);
+        System.out.print(text);
+        Files.writeString(Path.of("target", "load-report.txt"), text, StandardCharsets.UTF_8);
+
+        assertEquals(0, report.totalErrors(), "failed requests");
+        if (minThroughput > 0) {
+            assertTrue(report.throughput(elapsed) >= minThroughput, "throughput below load.minThroughput");
+        }
+        if (maxP99Millis > 0) {
+            for (Operation operation : Operation.values()) {
+                assertTrue(report.p99Millis(operation) <= maxP99Millis, operation + " p99 above load.maxP99Millis");
+            }
+        }
+    }
+
+    //Один клиент: входит под своим пользователем и до deadline выполняет случайные операции над своими файлами
+    private class Worker {
+        private final int id;
+        private final LoadClient client;
+        private final LoadReport report;
+        private final WeightedMix<Operation> operations;
+        private final WeightedMix<Integer> sizes;
+        private final Map<Integer, byte[]> contents;
+        private final Random random;
+        //свои файлы клиента: имя -> размер
+        private final Map<String, Integer> files = new HashMap<>();
+        private final List<String> filenames = new ArrayList<>();
+        private long sequence;
+
+        Worker(int id, LoadClient client, LoadReport report, WeightedMix<Operation> operations, WeightedMix<Integer> sizes,
+               Map<Integer, byte[]> contents) {
+            this.id = id;
+            this.client = client;
+            this.report = report;
+            this.operations = operations;
+            this.sizes = sizes;
+            this.contents = contents;
+            this.random = new Random(id);
+        }
+
+        void run(long deadline) {
+            execute(Operation.LOGIN);
+            while (System.nanoTime() < deadline) {
+                Operation operation = operations.next(random);
+                //пока файлов нет, скачивать, переименовывать и удалять нечего
+                if (filenames.isEmpty() && operation != Operation.LOGIN && operation != Operation.LIST) {
+                    operation = Operation.UPLOAD;
+                }
+                execute(operation);
+            }
+        }
+
+        private void execute(Operation operation) {
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                ok = perform(operation);
+            } catch (IOException | InterruptedException | RuntimeException ex) {
+                ok = false;
+            }
+            report.record(operation, start, ok);
+        }
+
+        private boolean perform(Operation operation) throws IOException, InterruptedException {
+            switch (operation) {
+                case LOGIN:
+                    return client.login("load-user-" + id, PASSWORD) == 200;
+                case LIST:
+                    return client.list(listLimit) == 200;
+                case UPLOAD: {
+                    int size = sizes.next(random);
+                    String filename = "file-" + id + "-" + (++sequence);
+                    if (client.upload(filename, prefix(size), contents.get(size)) != 200) {
+                        return false;
+                    }
+                    add(filename, size);
+                    report.uploaded(size);
+                    return true;
+                }
+                case DOWNLOAD: {
+                    String filename = randomFile();
+                    long[] response = client.download(filename);
+                    report.downloaded(response[1]);
+                    return response[0] == 200 && response[1] == files.get(filename);
+                }
+                case RENAME: {
+                    String filename = randomFile();
+                    String newFilename = "file-" + id + "-" + (++sequence);
+                    if (client.rename(filename, newFilename) != 200) {
+                        return false;
+                    }
+                    add(newFilename, remove(filename));
+                    return true;
+                }
+                case DELETE: {
+                    String filename = randomFile();
+                    if (client.delete(filename) != 200) {
+                        return false;
+                    }
+                    remove(filename);
+                    return true;
+                }
+                default:
+                    throw new IllegalArgumentException(operation.name());
+            }
+        }
+
+        //уникальные первые байты: иначе одинаковое содержимое сохранялось бы один раз
+        private byte[] prefix(int size) {
+            ByteBuffer prefix = ByteBuffer.allocate(PREFIX_LENGTH).putLong(id).putLong(sequence);
+            return Arrays.copyOf(prefix.array(), Math.min(PREFIX_LENGTH, size));
+        }
+
+        private String randomFile() {
+            return filenames.get(random.nextInt(filenames.size()));
+        }
+
+        private void add(String filename, int size) {
+            files.put(filename, size);
+            filenames.add(filename);
+        }
+
+        private int remove(String filename) {
+            filenames.remove(filename);
+            return files.remove(filename);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ru.netology.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import ru.netology.entities.User;
+import ru.netology.repositories.UserRepository;
+import ru.netology.services.StorageService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Изоляция коротких запросов от медленных передач: задержки /list и /login сначала без нагрузки,
+//затем пока идут isolation.slowDownloads медленных скачиваний и isolation.slowUploads медленных загрузок частей.
+//Потоков Tomcat всего 8 - меньше, чем медленных передач: если бы передачи держали потоки Tomcat,
+//короткие запросы вставали бы в очередь до таймаута. Передачи же ждут в пуле transferExecutor.
+//Запуск: mvn -Pload test -Dtest=LatencyIsolationLoadTest -Disolation.slowDownloads=200 -Disolation.phase=30s,
+//отчет - в target/isolation-report.txt. isolation.maxP99Millis - проверяемая заявка для p99 под нагрузкой, 0 - не проверять
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:isolation;DB_CLOSE_DELAY=-1;INIT=CREATE SCHEMA IF NOT EXISTS netology",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "storage.type=filesystem",
+        "server.tomcat.threads.max=8",
+        "server.tomcat.threads.min-spare=8",
+        //медленные передачи не должны упираться в общий бюджет передач: проверяется изоляция, а не допуск
+        "transfer.globalBudget=1099511627776",
+        //обрывы медленных передач в конце теста - ожидаемые ошибки
+        "logging.level.root=off"})
+class LatencyIsolationLoadTest {
+    private static final String PASSWORD = "password";
+    private static final String FAST_USER = "fast-user";
+    private static final String FILENAME = "big.bin";
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${isolation.slowDownloads:32}")
+    private int slowDownloads;
+    @Value("${isolation.slowUploads:16}")
+    private int slowUploads;
+    @Value("${isolation.fileSize:33554432}")
+    private int fileSize;
+    @Value("${isolation.phase:15s}")
+    private Duration phase;
+    @Value("${isolation.requestTimeout:10s}")
+    private Duration requestTimeout;
+    @Value("${isolation.maxP99Millis:0}")
+    private double maxP99Millis;
+    //пока true, медленные клиенты продолжают передачу
+    private volatile boolean running;
+
+    @DynamicPropertySource
+    static void storageRoot(DynamicPropertyRegistry registry) throws IOException {
+        Path root = Files.createTempDirectory("storage-isolation");
+        registry.add("storage.filesystem.root", root::toString);
+    }
+
+    @Test
+    void shortRequestsAreIsolatedFromSlowTransfers() throws Exception {
+        String passwordHash = passwordEncoder.encode(PASSWORD);
+        userRepository.save(new User(FAST_USER, passwordHash, "USER"));
+        //у каждого медленного клиента свой пользователь и свой файл (одно и то же содержимое хранится один раз)
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        for (int i = 0; i < slowDownloads + slowUploads; i++) {
+            userRepository.save(new User(slowUser(i), passwordHash, "USER"));
+            if (i < slowDownloads) {
+                storageService.uploadFile(slowUser(i), FILENAME, "application/octet-stream", fileSize, new ByteArrayResource(content));
+            }
+        }
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        LoadClient fastClient = client(httpClient);
+
+        LoadReport baseline = new LoadReport();
+        runShortRequests(fastClient, baseline);
+
+        //медленные клиенты: читают и отправляют по 8 КБ каждые 50 мс, так что до конца замера ни одна передача не заканчивается
+        running = true;
+        CountDownLatch started = new CountDownLatch(slowDownloads + slowUploads);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicReference<Exception> startFailure = new AtomicReference<>();
+        ExecutorService slowClients = Executors.newCachedThreadPool();
+        for (int i = 0; i < slowDownloads + slowUploads; i++) {
+            int index = i;
+            slowClients.execute(() -> {
+                inFlight.incrementAndGet();
+                try {
+                    //ответ на медленную загрузку приходит только после всего тела, поэтому таймаут - на весь тест
+                    LoadClient client = new LoadClient(httpClient, objectMapper, "http://localhost:" + port, Duration.ofMinutes(10));
+                    client.login(slowUser(index), PASSWORD);
+                    if (index < slowDownloads) {
+                        client.slowDownload(FILENAME, 8192, Duration.ofMillis(50), () -> running, started::countDown);
+                    } else {
+                        String id = client.openUpload(FILENAME, fileSize);
+                        client.putChunk(id, 0, fileSize, () -> new SlowInputStream(fileSize, started));
+                    }
+                } catch (Exception ex) {
+                    if (running) {
+                        startFailure.compareAndSet(null, ex);
+                    }
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+        assertTrue(started.await(60, TimeUnit.SECONDS), () -> "slow transfers did not start: " + startFailure.get());
+
+        LoadReport loaded = new LoadReport();
+        runShortRequests(fastClient, loaded);
+        int inFlightAtEnd = inFlight.get();
+
+        running = false;
+        slowClients.shutdown();
+        assertTrue(slowClients.awaitTermination(60, TimeUnit.SECONDS), "slow transfers did not stop");
+
+        String text = String.format("Tomcat threads: 8, phase: %s%n", phase)
+                + "baseline, no transfers in flight:\n" + baseline.format(phase)
+                + String.format("with %d slow downloads and %d slow uploads of %d bytes in flight (%d still in flight at the end):%n",
+                slowDownloads, slowUploads, fileSize, inFlightAtEnd)
+                + loaded.format(phase);
+        System.out.print(text);
+        Files.writeString(Path.of("target", "isolation-report.txt"), text, StandardCharsets.UTF_8);
+
+        assertNull(startFailure.get(), () -> "slow transfer failed: " + startFailure.get());
+        //медленные передачи действительно шли все время замера
+        assertEquals(slowDownloads + slowUploads, inFlightAtEnd);
+        assertEquals(0, baseline.totalErrors(), "failed short requests without load");
+        assertEquals(0, loaded.totalErrors(), "failed short requests under slow transfers");
+        if (maxP99Millis > 0) {
+            assertTrue(loaded.p99Millis(Operation.LIST) <= maxP99Millis, "list p99 above isolation.maxP99Millis");
+            assertTrue(loaded.p99Millis(Operation.LOGIN) <= maxP99Millis, "login p99 above isolation.maxP99Millis");
+        }
+    }
+
+    //короткие запросы одного клиента подряд в течение phase: /list и каждый десятый раз /login
+    private void runShortRequests(LoadClient client, LoadReport report) {
+        long deadline = System.nanoTime() + phase.toNanos();
+        for (int i = 0; System.nanoTime() < deadline; i++) {
+            Operation operation = i % 10 == 0 ? Operation.LOGIN : Operation.LIST;
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                ok = operation == Operation.LOGIN ? client.login(FAST_USER, PASSWORD) == 200 : client.list(100) == 200;
+            } catch (IOException | InterruptedException ex) {
+                ok = false;
+            }
+            report.record(operation, start, ok);
+        }
+    }
+
+    private LoadClient client(HttpClient httpClient) {
+        return new LoadClient(httpClient, objectMapper, "http://localhost:" + port, requestTimeout);
+    }
+
+    private static String slowUser(int index) {
+        return "slow-user-" + index;
+    }
+
+    //Тело медленной загрузки: по 8 КБ каждые 50 мс. После окончания теста обрывает запрос
+    private class SlowInputStream extends InputStream {
+        private final CountDownLatch started;
+        private long remaining;
+        private boolean first = true;
+
+        SlowInputStream(long length, CountDownLatch started) {
+            this.remaining = length;
+            this.started = started;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (first) {
+                first = false;
+                started.countDown();
+            }
+            if (!running) {
+                throw new IOException("Test finished");
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+            int read = (int) Math.min(Math.min(len, 8192), remaining);
+            remaining -= read;
+            return read;
+        }
+    }
+}
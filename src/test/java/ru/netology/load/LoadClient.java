@@ -0,0 +1,143 @@
+package ru.netology.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+//HTTP-клиент нагрузочного теста: те же запросы, что отправляет FRONT. Методы возвращают код ответа
+class LoadClient {
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final String baseUrl;
+    //сколько ждать заголовков ответа: запрос, который сервер не начал обслуживать, считается ошибкой, а не висит
+    private final Duration timeout;
+    private String authToken;
+
+    LoadClient(HttpClient httpClient, ObjectMapper objectMapper, String baseUrl, Duration timeout) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.baseUrl = baseUrl;
+        this.timeout = timeout;
+    }
+
+    int login(String login, String password) throws IOException, InterruptedException {
+        String body = objectMapper.writeValueAsString(Map.of("login", login, "password", password));
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(uri("/login"))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 200) {
+            authToken = "Bearer " + objectMapper.readTree(response.body()).get("auth-token").asText();
+        }
+        return response.statusCode();
+    }
+
+    int list(int limit) throws IOException, InterruptedException {
+        return httpClient.send(authorized("/list?limit=" + limit).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+    }
+
+    //содержимое файла - prefix и за ним content: общий буфер content не копируется на каждую загрузку
+    int upload(String filename, byte[] prefix, byte[] content) throws IOException, InterruptedException {
+        //multipart/form-data с одной частью file, как у формы загрузки
+        String boundary = UUID.randomUUID().toString();
+        String head = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+        HttpRequest request = authorized("/file?filename=" + encode(filename))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(
+                        head.getBytes(StandardCharsets.UTF_8), prefix, content, tail.getBytes(StandardCharsets.UTF_8))))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    //код ответа и число полученных байт содержимого
+    long[] download(String filename) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = httpClient.send(authorized("/file?filename=" + encode(filename)).GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        long received = 0;
+        try (InputStream in = response.body()) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                received += read;
+            }
+        }
+        return new long[]{response.statusCode(), received};
+    }
+
+    //Медленное скачивание: читает по bytesPerRead байт с паузой pause, пока running() или до конца файла.
+    //Возвращает число полученных байт, started вызывается, когда пришли заголовки ответа
+    long slowDownload(String filename, int bytesPerRead, Duration pause, BooleanSupplier running, Runnable started)
+            throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = httpClient.send(authorized("/file?filename=" + encode(filename)).GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        started.run();
+        long received = 0;
+        try (InputStream in = response.body()) {
+            byte[] buffer = new byte[bytesPerRead];
+            int read;
+            while (running.getAsBoolean() && (read = in.read(buffer)) != -1) {
+                received += read;
+                Thread.sleep(pause.toMillis());
+            }
+        }
+        return received;
+    }
+
+    //id сессии докачиваемой загрузки из одной части размера size
+    String openUpload(String filename, long size) throws IOException, InterruptedException {
+        HttpResponse<String> response = httpClient.send(authorized("/upload?filename=" + encode(filename)
+                + "&size=" + size + "&chunkSize=" + size).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofString());
+        return response.statusCode() == 200 ? objectMapper.readTree(response.body()).get("id").asText() : null;
+    }
+
+    int putChunk(String id, int index, long length, Supplier<InputStream> content) throws IOException, InterruptedException {
+        return httpClient.send(authorized("/upload/" + id + "/" + index)
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(content), length))
+                .build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    int rename(String filename, String newFilename) throws IOException, InterruptedException {
+        String body = objectMapper.writeValueAsString(Map.of("filename", newFilename));
+        return httpClient.send(authorized("/file?filename=" + encode(filename))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    int delete(String filename) throws IOException, InterruptedException {
+        return httpClient.send(authorized("/file?filename=" + encode(filename)).DELETE().build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private HttpRequest.Builder authorized(String path) {
+        return HttpRequest.newBuilder(uri(path)).timeout(timeout).header("auth-token", authToken);
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
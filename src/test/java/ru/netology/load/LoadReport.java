@@ -0,0 +1,103 @@
+package ru.netology.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//Результаты нагрузочного теста: задержки по операциям (гистограммы в микросекундах), ошибки, объем переданных байт
+//и пик занятой кучи. Кучу делят приложение и сам тест: они работают в одной JVM
+class LoadReport {
+    private static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final LongAdder uploadedBytes = new LongAdder();
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final AtomicLong peakHeapUsed = new AtomicLong();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    LoadReport() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentHistogram(MAX_LATENCY_MICROS, 3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    void record(Operation operation, long startNanos, boolean ok) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        latencies.get(operation).recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+        if (!ok) {
+            errors.get(operation).increment();
+        }
+    }
+
+    void uploaded(long bytes) {
+        uploadedBytes.add(bytes);
+    }
+
+    void downloaded(long bytes) {
+        downloadedBytes.add(bytes);
+    }
+
+    //вызывается периодически во время теста
+    void sampleHeap() {
+        peakHeapUsed.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+    }
+
+    long totalOperations() {
+        return latencies.values().stream().mapToLong(Histogram::getTotalCount).sum();
+    }
+
+    long totalErrors() {
+        return errors.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    double throughput(Duration elapsed) {
+        return totalOperations() / seconds(elapsed);
+    }
+
+    //p99 операции в миллисекундах, 0 - если операция не выполнялась
+    double p99Millis(Operation operation) {
+        return latencies.get(operation).getValueAtPercentile(99) / 1000.0;
+    }
+
+    String format(Duration elapsed) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s %9s %7s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "ops/s", "p50 ms", "p99 ms", "max ms"));
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = latencies.get(operation);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            report.append(String.format("%-10s %9d %7d %10.1f %10.2f %10.2f %10.2f%n",
+                    operation.name().toLowerCase(), histogram.getTotalCount(), errors.get(operation).sum(),
+                    histogram.getTotalCount() / seconds(elapsed),
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getMaxValue() / 1000.0));
+        }
+        report.append(String.format("%-10s %9d %7d %10.1f%n", "total", totalOperations(), totalErrors(), throughput(elapsed)));
+        report.append(String.format("uploaded %.1f MB (%.1f MB/s), downloaded %.1f MB (%.1f MB/s) in %.1f s%n",
+                megabytes(uploadedBytes.sum()), megabytes(uploadedBytes.sum()) / seconds(elapsed),
+                megabytes(downloadedBytes.sum()), megabytes(downloadedBytes.sum()) / seconds(elapsed), seconds(elapsed)));
+        report.append(String.format("peak heap used %.1f MB of %.1f MB max%n",
+                megabytes(peakHeapUsed.get()), megabytes(memory.getHeapMemoryUsage().getMax())));
+        return report.toString();
+    }
+
+    private static double seconds(Duration elapsed) {
+        return elapsed.toNanos() / 1e9;
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,10 @@
+package ru.netology.load;
+
+//Операции нагрузочного теста, имена - как в load.mix
+enum Operation {
+    LOGIN, LIST, UPLOAD, DOWNLOAD, RENAME, DELETE;
+
+    static Operation parse(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
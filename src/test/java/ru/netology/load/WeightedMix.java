@@ -0,0 +1,43 @@
+package ru.netology.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+//Смесь значений с весами из строки вида "list:40,upload:15": значение выбирается с вероятностью,
+//пропорциональной весу
+class WeightedMix<T> {
+    private final List<T> values = new ArrayList<>();
+    private final List<Integer> cumulativeWeights = new ArrayList<>();
+    private int totalWeight;
+
+    WeightedMix(String spec, Function<String, T> parser) {
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2 || Integer.parseInt(parts[1].trim()) < 0) {
+                throw new IllegalArgumentException("Expected value:weight, got " + entry);
+            }
+            totalWeight += Integer.parseInt(parts[1].trim());
+            values.add(parser.apply(parts[0].trim()));
+            cumulativeWeights.add(totalWeight);
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Mix has no weight: " + spec);
+        }
+    }
+
+    T next(Random random) {
+        int point = random.nextInt(totalWeight);
+        for (int i = 0; i < values.size(); i++) {
+            if (point < cumulativeWeights.get(i)) {
+                return values.get(i);
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    List<T> values() {
+        return values;
+    }
+}
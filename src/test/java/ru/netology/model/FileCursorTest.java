@@ -0,0 +1,22 @@
+package ru.netology.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileCursorTest {
+
+    @Test
+    void encodeDecodeTest() {
+        //двоеточие в имени файла не должно ломать разбор курсора
+        FileCursor cursor = new FileCursor("report: 2023.txt", 42L);
+
+        assertEquals(cursor, FileCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void decodeMalformedTest() {
+        assertThrows(IllegalArgumentException.class, () -> FileCursor.decode("not a cursor"));
+    }
+}
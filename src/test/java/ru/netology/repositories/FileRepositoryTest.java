@@ -0,0 +1,61 @@
+package ru.netology.repositories;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import ru.netology.entities.File;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Запросы выполняются на встроенной H2: так проверяется SQL, который Hibernate строит из JPQL,
+//а не только вызовы репозитория, как в тестах сервисов
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:files;INIT=CREATE SCHEMA IF NOT EXISTS netology",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class FileRepositoryTest {
+    @Autowired
+    FileRepository fileRepository;
+    @Autowired
+    EntityManager entityManager;
+    //нужен commandLineRunner из CloudStorageApplication, а настройки безопасности в срез JPA не входят
+    @MockBean
+    PasswordEncoder passwordEncoder;
+
+    @Test
+    void renameByPrefixTest() {
+        fileRepository.saveAll(List.of(
+                new File("dir_1/a.txt", "text/plain", 1L, "hash", "user"),
+                new File("dir_1/sub/b.txt", "text/plain", 1L, "hash", "user"),
+                //_ в префиксе - обычный символ, а не любой символ LIKE
+                new File("dirX1/c.txt", "text/plain", 1L, "hash", "user"),
+                new File("dir_1/d.txt", "text/plain", 1L, "hash", "other")));
+
+        int renamed = fileRepository.renameByPrefix("user", "dir_1/", "dir!_1/%", "archive/", "dir_1/".length() + 1);
+        entityManager.clear();
+
+        //заменяется только префикс, остаток имени сохраняется целиком
+        assertEquals(2, renamed);
+        assertEquals(List.of("archive/a.txt", "archive/sub/b.txt", "dirX1/c.txt"), filenames("user"));
+        assertEquals(List.of("dir_1/d.txt"), filenames("other"));
+    }
+
+    private List<String> filenames(String owner) {
+        return fileRepository.findAll().stream()
+                .filter(file -> file.getOwner().equals(owner))
+                .map(File::getFilename)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,47 @@
+package ru.netology.security;
+
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import ru.netology.entities.User;
+import ru.netology.model.SecurityUser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtTokenUtilsTest {
+    private final String SIGNING_KEY = "ymLTU8rq83j4fmJZj60wh4OrMNuntIj4fmJ";
+    private final String USERNAME = "admin";
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JwtTokenUtils jwtTokenUtils = new JwtTokenUtils(SIGNING_KEY, 100, meterRegistry);
+    private final SecurityUser securityUser = new SecurityUser(new User(USERNAME, "admin", "USER"));
+
+    @Test
+    void generateAndValidateTokenTest() {
+        String token = jwtTokenUtils.generateToken(new UsernamePasswordAuthenticationToken(securityUser, null));
+
+        assertTrue(jwtTokenUtils.validateToken(token));
+        assertEquals(USERNAME, jwtTokenUtils.getUsernameFromToken(token));
+    }
+
+    @Test
+    void verifiedTokenIsCachedTest() {
+        String token = jwtTokenUtils.generateToken(new UsernamePasswordAuthenticationToken(securityUser, null));
+
+        //повторное обращение к тому же токену не разбирает его заново, а берет утверждения из кэша
+        assertSame(jwtTokenUtils.getClaims(token), jwtTokenUtils.getClaims(token));
+        //подпись проверялась один раз - это видно по таймеру разбора
+        assertEquals(1, meterRegistry.get("auth.jwt").tag("operation", "parse").timer().count());
+        assertEquals(1, meterRegistry.get("auth.jwt").tag("operation", "sign").timer().count());
+    }
+
+    @Test
+    void tokenWithForeignSignatureTest() {
+        //токен подписан другим ключом и не должен пройти проверку, в том числе через кэш
+        String foreignToken = new JwtTokenUtils(SIGNING_KEY + "foreign", 100, new SimpleMeterRegistry())
+                .generateToken(new UsernamePasswordAuthenticationToken(securityUser, null));
+
+        assertThrows(JwtException.class, () -> jwtTokenUtils.getUsernameFromToken(foreignToken));
+        assertThrows(JwtException.class, () -> jwtTokenUtils.getUsernameFromToken(foreignToken));
+    }
+}
@@ -0,0 +1,35 @@
+package ru.netology.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import ru.netology.entities.User;
+import ru.netology.model.SecurityUser;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenRevocationStoreTest {
+    private final JwtTokenUtils jwtTokenUtils = new JwtTokenUtils("ymLTU8rq83j4fmJZj60wh4OrMNuntIj4fmJ", 100, new SimpleMeterRegistry());
+    private final TokenRevocationStore tokenRevocationStore = new TokenRevocationStore(jwtTokenUtils);
+    private final SecurityUser securityUser = new SecurityUser(new User("admin", "admin", "USER"));
+
+    @Test
+    void revokeTest() {
+        String token = jwtTokenUtils.generateToken(new UsernamePasswordAuthenticationToken(securityUser, null));
+        String otherToken = jwtTokenUtils.generateToken(new UsernamePasswordAuthenticationToken(securityUser, null)) + " ";
+
+        tokenRevocationStore.revoke(token);
+
+        assertTrue(tokenRevocationStore.isRevoked(token));
+        assertFalse(tokenRevocationStore.isRevoked(otherToken));
+    }
+
+    @Test
+    void revokeInvalidTokenTest() {
+        //невалидный токен не запоминается
+        tokenRevocationStore.revoke("not a token");
+
+        assertFalse(tokenRevocationStore.isRevoked("not a token"));
+    }
+}
@@ -0,0 +1,53 @@
+package ru.netology.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.netology.entities.User;
+import ru.netology.model.SecurityUser;
+import ru.netology.services.UserDetailsServiceImpl;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class UserDetailsCacheTest {
+    @Mock
+    private UserDetailsServiceImpl userDetailsService;
+    private final String USERNAME = "admin";
+    private final SecurityUser securityUser = new SecurityUser(new User(USERNAME, "admin", "USER"));
+
+    @Test
+    void getCachesUserTest() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UserDetailsCache userDetailsCache = new UserDetailsCache(userDetailsService, meterRegistry, 10, Duration.ofMinutes(5));
+        given(userDetailsService.loadUserByUsername(USERNAME)).willReturn(securityUser);
+
+        userDetailsCache.get(USERNAME);
+        userDetailsCache.get(USERNAME);
+
+        //второй запрос обслужен из кэша
+        verify(userDetailsService, times(1)).loadUserByUsername(USERNAME);
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "users").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void invalidateTest() {
+        UserDetailsCache userDetailsCache = new UserDetailsCache(userDetailsService, new SimpleMeterRegistry(), 10, Duration.ofMinutes(5));
+        given(userDetailsService.loadUserByUsername(USERNAME)).willReturn(securityUser);
+
+        userDetailsCache.get(USERNAME);
+        userDetailsCache.invalidate(USERNAME);
+        userDetailsCache.get(USERNAME);
+
+        //после invalidate пользователь снова загружается из базы
+        verify(userDetailsService, times(2)).loadUserByUsername(USERNAME);
+    }
+}
@@ -0,0 +1,224 @@
+package ru.netology.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.netology.entities.StoredBlob;
+import ru.netology.repositories.StoredBlobRepository;
+import ru.netology.storage.BlobStore;
+import ru.netology.storage.CompressionPolicy;
+import ru.netology.storage.ContentCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BlobServiceTest {
+    @InjectMocks
+    private BlobService blobService;
+    @Mock
+    private StoredBlobRepository storedBlobRepository;
+    @Mock
+    private BlobStore blobStore;
+    @Mock
+    private CompressionPolicy compressionPolicy;
+    @Mock
+    private DownloadCache downloadCache;
+    private final MockMultipartFile file = new MockMultipartFile("file", "hello".getBytes());
+    //SHA-256 строки "hello"
+    private final String HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+    private final String BLOB_KEY = "blobKey";
+
+    @BeforeEach
+    void setUp() {
+        //@Value в юнит-тесте не подставляется, поэтому размер буфера задаем сами
+        ReflectionTestUtils.setField(blobService, "bufferSize", 2);
+    }
+
+    @Test
+    void storeNewContentTest() throws IOException {
+        given(storedBlobRepository.incrementRefCount(HASH)).willReturn(0);
+        given(blobStore.put(any(InputStream.class), anyLong())).willReturn(BLOB_KEY);
+
+        assertEquals(HASH, blobService.store(file, file.getSize(), "text/plain"));
+
+        //нового содержимого не было - оно записано с одной ссылкой
+        StoredBlob stored = insertedBlob();
+        assertEquals(BLOB_KEY, stored.getBlobKey());
+        assertEquals(1L, stored.getRefCount());
+    }
+
+    @Test
+    void storeConcurrentNewContentTest() throws IOException {
+        given(storedBlobRepository.incrementRefCount(HASH)).willReturn(0);
+        given(blobStore.put(any(InputStream.class), anyLong())).willReturn(BLOB_KEY);
+        //то же содержимое параллельно сохранила другая загрузка: запись с этим хэшем уже есть
+        given(storedBlobRepository.insertAbsent(any())).willAnswer(invocation -> invocation.getArgument(0));
+        given(storedBlobRepository.incrementRefCounts(List.of(HASH), 1L)).willReturn(1);
+
+        assertEquals(HASH, blobService.store(file, file.getSize(), "text/plain"));
+
+        //своя копия удалена, ссылка добавлена к чужой записи
+        verify(blobStore, times(1)).delete(BLOB_KEY);
+        verify(storedBlobRepository, times(1)).insertAbsent(any());
+    }
+
+    @Test
+    void storeConcurrentlyDeletedContentTest() throws IOException {
+        given(storedBlobRepository.incrementRefCount(HASH)).willReturn(0);
+        given(blobStore.put(any(InputStream.class), anyLong())).willReturn(BLOB_KEY);
+        //чужая запись была при вставке, но до update ее успели удалить: вторая вставка проходит
+        given(storedBlobRepository.insertAbsent(any()))
+                .willAnswer(invocation -> invocation.getArgument(0))
+                .willReturn(List.of());
+        given(storedBlobRepository.incrementRefCounts(List.of(HASH), 1L)).willReturn(0);
+
+        assertEquals(HASH, blobService.store(file, file.getSize(), "text/plain"));
+
+        verify(blobStore, never()).delete(any());
+        verify(storedBlobRepository, times(2)).insertAbsent(any());
+    }
+
+    @Test
+    void storeDuplicateContentTest() throws IOException {
+        given(storedBlobRepository.incrementRefCount(HASH)).willReturn(1);
+
+        assertEquals(HASH, blobService.store(file, file.getSize(), "text/plain"));
+
+        //дубликат в BlobStore не пишется
+        verify(blobStore, never()).put(any(InputStream.class), anyLong());
+        verify(storedBlobRepository, never()).insertAbsent(any());
+    }
+
+    @Test
+    void storeCompressedContentTest() throws IOException {
+        given(compressionPolicy.getSampleSize()).willReturn(4);
+        //в образец попадают первые 4 байта содержимого
+        given(compressionPolicy.choose("text/plain", 5L, "hell".getBytes(), 4)).willReturn(ContentCodec.ZSTD);
+        given(storedBlobRepository.incrementRefCount(HASH)).willReturn(0);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        given(blobStore.put(any(InputStream.class), eq(-1L))).willAnswer(invocation -> {
+            invocation.getArgument(0, InputStream.class).transferTo(written);
+            return BLOB_KEY;
+        });
+
+        //хэш считается по исходному содержимому, а не по сжатому
+        assertEquals(HASH, blobService.store(file, file.getSize(), "text/plain"));
+
+        StoredBlob stored = insertedBlob();
+        assertEquals("zstd", stored.getEncoding());
+        assertEquals(5L, stored.getSize());
+        assertEquals(written.size(), stored.getStoredSize());
+        //в хранилище лежит zstd-фрейм, который распаковывается в исходное содержимое
+        try (InputStream in = ContentCodec.ZSTD.decompress(new ByteArrayInputStream(written.toByteArray()))) {
+            assertEquals("hello", new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    void storeAllTest() throws IOException {
+        MockMultipartFile other = new MockMultipartFile("files", "world".getBytes());
+        //SHA-256 строки "world"
+        String otherHash = "486ea46224d1bb4fb680f34f7c9ad96a8f24ec88be73ea8e5a6c65260e9cb8a7";
+        //"hello" уже хранится, "world" встречается в пачке дважды и еще не хранится
+        given(storedBlobRepository.findAllForUpdate(any()))
+                .willReturn(List.of(new StoredBlob(HASH, BLOB_KEY, 5L, 3L)));
+        given(blobStore.put(any(InputStream.class), anyLong())).willReturn("otherKey");
+
+        assertEquals(List.of(HASH, otherHash, otherHash), blobService.storeAll(List.of(file, other, other)));
+
+        //ссылка на существующее содержимое добавлена одним update
+        verify(storedBlobRepository, times(1)).incrementRefCounts(List.of(HASH), 1L);
+        //новое содержимое записано один раз, сразу с двумя ссылками
+        verify(blobStore, times(1)).put(any(InputStream.class), anyLong());
+        StoredBlob stored = insertedBlob();
+        assertEquals(otherHash, stored.getHash());
+        assertEquals(2L, stored.getRefCount());
+    }
+
+    @Test
+    void transferCompressedRangeTest() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = ContentCodec.LZ4.compress(compressed)) {
+            out.write("hello world".getBytes());
+        }
+        given(storedBlobRepository.findById(HASH))
+                .willReturn(Optional.of(new StoredBlob(HASH, BLOB_KEY, 11L, 1L, "lz4", (long) compressed.size())));
+        given(blobStore.open(BLOB_KEY)).willReturn(new ByteArrayInputStream(compressed.toByteArray()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        blobService.transferTo(HASH, 6, 3, out);
+
+        //диапазон отсчитывается в байтах исходного содержимого
+        assertEquals("wor", out.toString());
+    }
+
+    @Test
+    void releaseLastReferenceTest() throws IOException {
+        given(storedBlobRepository.findById(HASH)).willReturn(Optional.of(new StoredBlob(HASH, BLOB_KEY, 5L, 1L)));
+        given(storedBlobRepository.deleteUnreferenced(HASH)).willReturn(1);
+
+        blobService.release(HASH);
+
+        verify(storedBlobRepository, times(1)).decrementRefCount(HASH);
+        verify(blobStore, times(1)).delete(BLOB_KEY);
+        //удаленное содержимое убирается и из кэша скачиваний
+        verify(downloadCache, times(1)).invalidateContent(HASH, null);
+    }
+
+    @Test
+    void releaseSharedContentTest() throws IOException {
+        given(storedBlobRepository.findById(HASH)).willReturn(Optional.of(new StoredBlob(HASH, BLOB_KEY, 5L, 2L)));
+        given(storedBlobRepository.deleteUnreferenced(HASH)).willReturn(0);
+
+        blobService.release(HASH);
+
+        //на содержимое еще ссылаются - из BlobStore оно не удаляется
+        verify(blobStore, never()).delete(BLOB_KEY);
+    }
+
+    @Test
+    void releaseAllTest() throws IOException {
+        StoredBlob unreferenced = new StoredBlob(HASH, BLOB_KEY, 5L, 0L);
+        given(storedBlobRepository.findUnreferencedForUpdate(Set.of(HASH, "other"))).willReturn(List.of(unreferenced));
+
+        //две ссылки на HASH и одна на other
+        blobService.releaseAll(List.of(HASH, "other", HASH));
+
+        //счетчики меняются update'ом на группу с одинаковым числом ссылок, а не по одному
+        verify(storedBlobRepository, times(1)).decrementRefCounts(List.of(HASH), 2L);
+        verify(storedBlobRepository, times(1)).decrementRefCounts(List.of("other"), 1L);
+        verify(storedBlobRepository, times(1)).deleteUnreferenced(Set.of(HASH, "other"));
+        //из BlobStore удаляется только содержимое без ссылок, одной пачкой
+        verify(blobStore, times(1)).deleteAll(List.of(BLOB_KEY));
+        verify(downloadCache, times(1)).invalidateContent(HASH, null);
+    }
+
+    //единственная запись, переданная в insertAbsent
+    private StoredBlob insertedBlob() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<StoredBlob>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storedBlobRepository, times(1)).insertAbsent(captor.capture());
+        assertEquals(1, captor.getValue().size());
+        return captor.getValue().get(0);
+    }
+}
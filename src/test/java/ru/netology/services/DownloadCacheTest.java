@@ -0,0 +1,126 @@
+package ru.netology.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadCacheTest {
+    private final String HASH = "hash";
+
+    @Test
+    void offHeapContentTest() throws IOException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DownloadCache downloadCache = new DownloadCache(meterRegistry, 1024, 100, 10, true);
+        AtomicInteger loads = new AtomicInteger();
+        DownloadCache.ContentWriter loader = out -> {
+            loads.incrementAndGet();
+            out.write("hello world".getBytes());
+        };
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        downloadCache.write(HASH, null, 11, loader, 0, 11, first);
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        downloadCache.write(HASH, null, 11, loader, 6, 5, range);
+
+        assertEquals("hello world", first.toString());
+        assertEquals("world", range.toString());
+        assertEquals(1, loads.get());
+        //из кэша отдан только второй запрос
+        assertEquals(5.0, meterRegistry.get("cache.served").tag("cache", "downloads").counter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "downloads").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void invalidateContentTest() throws IOException {
+        DownloadCache downloadCache = new DownloadCache(new SimpleMeterRegistry(), 1024, 100, 10, false);
+        AtomicInteger loads = new AtomicInteger();
+        DownloadCache.ContentWriter loader = out -> {
+            loads.incrementAndGet();
+            out.write(1);
+        };
+
+        downloadCache.write(HASH, null, 1, loader, 0, 1, new ByteArrayOutputStream());
+        downloadCache.invalidateContent(HASH, null);
+        downloadCache.write(HASH, null, 1, loader, 0, 1, new ByteArrayOutputStream());
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void slowLoadDoesNotBlockOtherContentTest() throws Exception {
+        DownloadCache downloadCache = new DownloadCache(new SimpleMeterRegistry(), 1024, 100, 10, true);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        DownloadCache.ContentWriter slowLoader = out -> {
+            loads.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            out.write("slow".getBytes());
+        };
+
+        CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> write(downloadCache, HASH, slowLoader));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        //пока медленное хранилище читается, другое содержимое отдается без ожидания
+        assertEquals("fast", write(downloadCache, "other", out -> out.write("fast".getBytes())));
+        //повторный промах по тому же содержимому ждет уже идущую загрузку, а не читает хранилище снова
+        CompletableFuture<String> waiting = CompletableFuture.supplyAsync(() -> write(downloadCache, HASH, slowLoader));
+        release.countDown();
+
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+        assertEquals("slow", waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void wrongSizeIsNotCachedTest() throws IOException {
+        DownloadCache downloadCache = new DownloadCache(new SimpleMeterRegistry(), 1024, 100, 10, true);
+        AtomicInteger loads = new AtomicInteger();
+        DownloadCache.ContentWriter loader = out -> {
+            loads.incrementAndGet();
+            out.write("hello".getBytes());
+        };
+
+        //содержимое длиннее и короче известного размера - ошибка, в кэше оно не остается
+        assertThrows(IOException.class,
+                () -> downloadCache.write(HASH, null, 4, loader, 0, 4, new ByteArrayOutputStream()));
+        assertThrows(IOException.class,
+                () -> downloadCache.write(HASH, null, 6, loader, 0, 6, new ByteArrayOutputStream()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        downloadCache.write(HASH, null, 5, loader, 0, 5, out);
+
+        assertEquals("hello", out.toString());
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void isCacheableTest() {
+        DownloadCache downloadCache = new DownloadCache(new SimpleMeterRegistry(), 1024, 100, 10, false);
+
+        assertTrue(downloadCache.isCacheable(100));
+        assertFalse(downloadCache.isCacheable(101));
+    }
+
+    private String write(DownloadCache downloadCache, String hash, DownloadCache.ContentWriter loader) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            downloadCache.write(hash, null, 4, loader, 0, 4, out);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toString();
+    }
+}
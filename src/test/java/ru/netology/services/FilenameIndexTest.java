@@ -0,0 +1,122 @@
+package ru.netology.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.netology.dto.FileResponse;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilenameIndexTest {
+    private final String OWNER = "owner";
+    private final FilenameIndex filenameIndex = new FilenameIndex(new SimpleMeterRegistry(), 10, Duration.ofMinutes(5));
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Supplier<List<FileResponse>> loader = () -> {
+        loads.incrementAndGet();
+        return List.of(new FileResponse(1L, "Docs/Report.pdf", 10L),
+                new FileResponse(2L, "docs/notes.txt", 20L),
+                new FileResponse(3L, "photos/report-draft.jpg", 30L),
+                new FileResponse(4L, "music.mp3", 40L));
+    };
+
+    @Test
+    void prefixSearchTest() {
+        //регистр не учитывается, результат отсортирован по имени
+        assertEquals(List.of("docs/notes.txt", "Docs/Report.pdf"), search("DOCS/", true, 10));
+        assertEquals(List.of("docs/notes.txt"), search("docs/", true, 1));
+        assertTrue(search("report", true, 10).isEmpty());
+    }
+
+    @Test
+    void substringSearchTest() {
+        //длинная подстрока ищется по триграммам
+        assertEquals(List.of("Docs/Report.pdf", "photos/report-draft.jpg"), search("REPORT", false, 10));
+        assertEquals(List.of("Docs/Report.pdf"), search("report", false, 1));
+        assertTrue(search("xyz", false, 10).isEmpty());
+        //триграммы "rep" и "ort" есть, а подстроки нет
+        assertTrue(search("repxort", false, 10).isEmpty());
+        //короткая подстрока ищется перебором имен
+        assertEquals(List.of("Docs/Report.pdf", "photos/report-draft.jpg"), search("OR", false, 10));
+        assertEquals(List.of("music.mp3"), search("p3", false, 10));
+    }
+
+    @Test
+    void changesWithoutRebuildTest() {
+        search("docs", false, 10);
+
+        filenameIndex.added(OWNER, List.of(new FileResponse(5L, "docs/plan.txt", 50L)));
+        filenameIndex.removed(OWNER, List.of(2L));
+        filenameIndex.renamed(OWNER, Map.of(1L, "archive/Report.pdf"));
+        filenameIndex.renamed(OWNER, Map.of(4L, "docs/music.mp3"));
+
+        assertEquals(List.of("docs/music.mp3", "docs/plan.txt"), search("docs/", true, 10));
+        assertEquals(List.of("archive/Report.pdf"), search("archive", false, 10));
+        //повторное добавление того же файла не дублирует его
+        filenameIndex.added(OWNER, List.of(new FileResponse(5L, "docs/plan.txt", 50L)));
+        assertEquals(List.of("docs/plan.txt"), search("plan", false, 10));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void renameByIdTest() {
+        search("docs", false, 10);
+
+        filenameIndex.renamed(OWNER, Map.of(1L, "archive/Report.pdf"));
+        //повторное применение и файл, загруженный под старым именем, не переименовываются второй раз
+        filenameIndex.added(OWNER, List.of(new FileResponse(5L, "Docs/Report.pdf", 50L)));
+        filenameIndex.renamed(OWNER, Map.of(1L, "archive/Report.pdf"));
+        //удаленный файл не возвращается переименованием
+        filenameIndex.removed(OWNER, List.of(2L));
+        filenameIndex.renamed(OWNER, Map.of(2L, "archive/notes.txt"));
+
+        assertEquals(List.of("archive/Report.pdf", "Docs/Report.pdf"), search("report.pdf", false, 10));
+        assertTrue(search("notes", false, 10).isEmpty());
+    }
+
+    @Test
+    void sameNameOrderedByIdTest() {
+        search("docs", false, 10);
+
+        //одинаковые имена идут по id как по числу: 9 раньше 10
+        filenameIndex.added(OWNER, List.of(new FileResponse(10L, "same.txt", 1L), new FileResponse(9L, "same.txt", 1L)));
+
+        assertEquals(List.of(9L, 10L), filenameIndex.search(OWNER, "same", true, 10, loader).stream()
+                .map(FileResponse::getId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void changesDoNotExtendTtlTest() throws InterruptedException {
+        FilenameIndex shortLived = new FilenameIndex(new SimpleMeterRegistry(), 10, Duration.ofMillis(300));
+        shortLived.search(OWNER, "docs", false, 10, loader);
+
+        //изменения идут постоянно, но индекс все равно строится заново через ttl после построения
+        Thread.sleep(200);
+        shortLived.added(OWNER, List.of(new FileResponse(5L, "docs/plan.txt", 50L)));
+        Thread.sleep(200);
+        shortLived.search(OWNER, "docs", false, 10, loader);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void changesBeforeBuildTest() {
+        //индекса еще нет: изменение не применяется, индекс строится из базы
+        filenameIndex.added(OWNER, List.of(new FileResponse(5L, "docs/plan.txt", 50L)));
+
+        assertTrue(search("plan", false, 10).isEmpty());
+        assertEquals(1, loads.get());
+    }
+
+    private List<String> search(String query, boolean prefix, int limit) {
+        return filenameIndex.search(OWNER, query, prefix, limit, loader).stream()
+                .map(FileResponse::getFilename)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,114 @@
+package ru.netology.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import ru.netology.storage.BlobStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class LegacyContentMigrationTest {
+    @Mock
+    BlobService blobService;
+    @Mock
+    BlobStore blobStore;
+    private JdbcTemplate jdbcTemplate;
+    private LegacyContentMigration migration;
+
+    @BeforeEach
+    void setUp() {
+        //встроенная H2 вместо PostgreSQL: таблица files в том виде, в каком ее оставили прежние версии
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create schema netology");
+        jdbcTemplate.execute("create table netology.files (id bigint primary key, filename varchar(255), type varchar(255), "
+                + "size bigint, content_hash varchar(255), owner varchar(255), content blob, blob_key varchar(255))");
+        migration = new LegacyContentMigration(jdbcTemplate, blobService, blobStore,
+                new DataSourceTransactionManager(dataSource), "netology", 1);
+    }
+
+    @Test
+    void migrateLegacyContentTest() throws IOException {
+        //содержимое прямо в files.content, содержимое в BlobStore под blob_key и уже перенесенный файл
+        jdbcTemplate.update("insert into netology.files (id, type, size, content) values (1, 'text/plain', 5, ?)", "hello".getBytes());
+        jdbcTemplate.update("insert into netology.files (id, type, size, blob_key) values (2, 'text/plain', 5, 'oldKey')");
+        jdbcTemplate.update("insert into netology.files (id, type, size, content_hash) values (3, 'text/plain', 5, 'done')");
+        given(blobStore.open("oldKey")).willReturn(new ByteArrayInputStream("world".getBytes()));
+        //хэш - само содержимое, чтобы было видно, что прочитано
+        given(blobService.store(any(InputStreamSource.class), anyLong(), anyString())).willAnswer(invocation -> {
+            try (InputStream in = invocation.getArgument(0, InputStreamSource.class).getInputStream()) {
+                return new String(in.readAllBytes());
+            }
+        });
+
+        //batchSize = 1: за один запуск переносится одна строка
+        migration.migrateBatch();
+        assertEquals(Arrays.asList("hello", null, "done"),
+                jdbcTemplate.queryForList("select content_hash from netology.files order by id", String.class));
+        migration.migrateBatch();
+
+        assertEquals(List.of("hello", "world", "done"),
+                jdbcTemplate.queryForList("select content_hash from netology.files order by id", String.class));
+        //старая копия из BlobStore удалена, а схема не меняется: колонки удаляются отдельным скриптом
+        verify(blobStore, times(1)).delete("oldKey");
+        assertEquals(3L, jdbcTemplate.queryForObject("select count(*) from netology.files where content is null and blob_key is null", Long.class));
+
+        //дальнейшие запуски ничего не делают
+        migration.migrateBatch();
+        migration.migrateBatch();
+        verify(blobService, times(2)).store(any(InputStreamSource.class), anyLong(), anyString());
+    }
+
+    @Test
+    void retryFailedTest() throws IOException {
+        jdbcTemplate.update("insert into netology.files (id, type, size, blob_key) values (1, 'text/plain', 5, 'missingKey')");
+        jdbcTemplate.update("insert into netology.files (id, type, size, blob_key) values (2, 'text/plain', 5, 'oldKey')");
+        given(blobService.store(any(InputStreamSource.class), anyLong(), anyString()))
+                .willThrow(new IOException("missing"))
+                .willReturn("world");
+
+        migration.migrateBatch();
+        //непереносимая строка не задерживает следующие
+        migration.migrateBatch();
+
+        //строка 1 не перенесена: ключ остается, и новый проход по таблице пробует ее снова
+        assertEquals("missingKey", jdbcTemplate.queryForObject("select blob_key from netology.files where id = 1", String.class));
+        assertEquals("world", jdbcTemplate.queryForObject("select content_hash from netology.files where id = 2", String.class));
+        verify(blobStore, never()).delete("missingKey");
+        migration.migrateBatch();
+        migration.migrateBatch();
+        verify(blobService, times(3)).store(any(InputStreamSource.class), anyLong(), anyString());
+    }
+
+    @Test
+    void nothingToMigrateTest() throws IOException {
+        jdbcTemplate.execute("alter table netology.files drop column content");
+        jdbcTemplate.execute("alter table netology.files drop column blob_key");
+
+        migration.migrateBatch();
+
+        verify(blobStore, never()).delete(any());
+    }
+}
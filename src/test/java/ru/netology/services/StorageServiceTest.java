@@ -1,25 +1,46 @@
 package ru.netology.services;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import ru.netology.admission.QuotaExceededException;
+import ru.netology.admission.StorageQuota;
 import ru.netology.dto.FileResponse;
 import ru.netology.entities.File;
+import ru.netology.model.FileCursor;
+import ru.netology.model.FileRef;
 import ru.netology.repositories.FileRepository;
-import ru.netology.security.JwtTokenUtils;
+import ru.netology.repositories.UserRepository;
+import ru.netology.storage.CompressionPolicy;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.zip.ZipInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -32,42 +53,62 @@ class StorageServiceTest {
     @Mock
     FileRepository fileRepository;
     @Mock
-    JwtTokenUtils jwtTokenUtils;
+    BlobService blobService;
+    @Mock
+    UserRepository userRepository;
+    @Mock
+    CompressionPolicy compressionPolicy;
+    @Mock
+    StorageQuota storageQuota;
+    //настоящий кэш: проверяем, что повторные скачивания не доходят до репозитория и хранилища
+    @Spy
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @Spy
+    DownloadCache downloadCache = new DownloadCache(new SimpleMeterRegistry(), 1024, 100, 10, false);
+    @Spy
+    FilenameIndex filenameIndex = new FilenameIndex(new SimpleMeterRegistry(), 10, Duration.ofMinutes(5));
+    private final String CONTENT_HASH = "contentHash";
     private final File file = new File();
-    private final List<File> fileList = new ArrayList<>();
     private final String OWNER = "owner";
     private final String FILENAME = "filename";
 
     @Test
     void getFilesTest() {
-        String token = UUID.randomUUID().toString();
         int limit = 1;
-        file.setFilename(FILENAME);
-        fileList.add(file);
-        //при вызывании jwtTokenUtils.getUsernameFromToken(token.substring(7))) возвращается OWNER
-        given(jwtTokenUtils.getUsernameFromToken(token.substring(7))).willReturn(OWNER);
-        //при вызове fileRepository.findAllByOwner(OWNER)) возвращает Optional.of(fileList)
-        given(fileRepository.findAllByOwner(OWNER)).willReturn(Optional.of(fileList));
+        FileResponse fileResponse = new FileResponse(FILENAME, 36L);
+        //при вызове fileRepository.findFilesByOwner(OWNER, PageRequest.of(0, limit)) возвращает список из одного файла:
+        //limit передается в базу, а не применяется к результату
+        given(fileRepository.findFilesByOwner(OWNER, PageRequest.of(0, limit))).willReturn(List.of(fileResponse));
+
+        //у нашего сервиса вызываем getFiles в котором уже зашит ответ верхнего метода
+        List<FileResponse> responseList = storageService.getFiles(OWNER, limit, null);
+
+        assertEquals(responseList.get(0).getFilename(), fileResponse.getFilename());
+    }
+
+    @Test
+    void getFilesAfterCursorTest() {
+        int limit = 1;
+        FileResponse fileResponse = new FileResponse(2L, FILENAME, 36L);
+        //следующая страница запрашивается строго после позиции курсора
+        given(fileRepository.findFilesByOwnerAfter(OWNER, FILENAME, 1L, PageRequest.of(0, limit)))
+                .willReturn(List.of(fileResponse));
 
-        //у нашего сервиса вызываем getFiles в котором уже зашиты ответы двух верхних методов
-        List<FileResponse> responseList = storageService.getFiles(token, limit);
+        List<FileResponse> responseList = storageService.getFiles(OWNER, limit, new FileCursor(FILENAME, 1L));
 
-        assertEquals(responseList.get(0).getFilename(), file.getFilename());
+        assertEquals(fileResponse.getId(), responseList.get(0).getId());
     }
 
     @Test
     void uploadFileTest() throws IOException {
-        String token = UUID.randomUUID().toString();
-        byte[] content = token.getBytes();
-        file.setFilename(FILENAME);
-        file.setContent(content);
-        file.setSize(36L);
+        byte[] content = UUID.randomUUID().toString().getBytes();
         //Макетная реализация интерфейса MultipartFile.
         //Полезно в сочетании с MockMultipartStartServletRequest для тестирования контроллеров приложений, которые получают доступ к многопартовым загрузкам.
         MultipartFile multipartFile = new MockMultipartFile(FILENAME, content);
+        given(blobService.store(multipartFile, 36L, "application/octet-stream")).willReturn(CONTENT_HASH);
 
         //как бы загружаем файл
-        storageService.uploadFile(token, FILENAME, multipartFile);
+        storageService.uploadFile(OWNER, FILENAME, multipartFile);
 
         //verify Проверка определенного поведения, произошедшего один раз.
 
@@ -79,48 +120,284 @@ class StorageServiceTest {
         //режим проверки
 
         //другими словами проверяет сколько вызывался тот или иной метод
-        verify(fileRepository, times(1)).save(file);
+        //ArgumentCaptor перехватывает сохраненный объект, чтобы проверить его поля
+        ArgumentCaptor<File> captor = ArgumentCaptor.forClass(File.class);
+        verify(fileRepository, times(1)).save(captor.capture());
+        assertEquals(FILENAME, captor.getValue().getFilename());
+        assertEquals(36L, captor.getValue().getSize());
+        assertEquals(OWNER, captor.getValue().getOwner());
+        assertEquals(CONTENT_HASH, captor.getValue().getContentHash());
+        //клиент не прислал тип - сохраняется application/octet-stream
+        assertEquals("application/octet-stream", captor.getValue().getType());
+        //версия списка и занятый объем меняются одним update
+        verify(userRepository, times(1)).recordFilesChange(OWNER, 36L);
+        //объем загрузки учтен в метрике
+        assertEquals(36.0, meterRegistry.get("storage.transfer").tag("direction", "upload").summary().totalAmount());
+    }
+
+    @Test
+    void uploadInvalidTypeTest() throws IOException {
+        MultipartFile multipartFile = new MockMultipartFile("file", FILENAME, "not a type", new byte[36]);
+        given(blobService.store(multipartFile, 36L, "application/octet-stream")).willReturn(CONTENT_HASH);
+
+        storageService.uploadFile(OWNER, FILENAME, multipartFile);
+
+        //неразборчивый тип не сохраняется: иначе скачивание падало бы на Content-Type
+        ArgumentCaptor<File> captor = ArgumentCaptor.forClass(File.class);
+        verify(fileRepository, times(1)).save(captor.capture());
+        assertEquals("application/octet-stream", captor.getValue().getType());
+        assertEquals("text/csv; charset=UTF-8", StorageService.contentType("text/csv; charset=UTF-8"));
     }
 
+    @Test
+    void uploadOverQuotaTest() throws IOException {
+        MultipartFile multipartFile = new MockMultipartFile(FILENAME, new byte[36]);
+        willThrow(new QuotaExceededException(10L)).given(storageQuota).reserve(OWNER, 36L);
+
+        assertThrows(QuotaExceededException.class, () -> storageService.uploadFile(OWNER, FILENAME, multipartFile));
+
+        //содержимое не записано и строка не сохранена
+        verify(blobService, never()).store(any(), anyLong(), any());
+        verify(fileRepository, never()).save(any());
+    }
 
     @Test
-    void deleteFileTest() {
-        //создаем токен
-        String token = UUID.randomUUID().toString();
+    void uploadFilesTest() throws IOException {
+        List<MultipartFile> files = List.of(new MockMultipartFile("files", "a.txt", "text/plain", "aaa".getBytes()),
+                new MockMultipartFile("files", "b.txt", "text/plain", "bb".getBytes()));
+        given(blobService.storeAll(files)).willReturn(List.of("hashA", "hashB"));
+
+        storageService.uploadFiles(OWNER, files);
+
+        //строки сохраняются одним saveAll, имена берутся из частей запроса
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<File>> captor = ArgumentCaptor.forClass(List.class);
+        verify(fileRepository, times(1)).saveAll(captor.capture());
+        assertEquals("a.txt", captor.getValue().get(0).getFilename());
+        assertEquals("hashB", captor.getValue().get(1).getContentHash());
+        assertEquals(2L, captor.getValue().get(1).getSize());
+        //версия списка меняется один раз на всю пачку
+        verify(userRepository, times(1)).recordFilesChange(OWNER, 5L);
+        assertEquals(5.0, meterRegistry.get("storage.transfer").tag("direction", "upload").summary().totalAmount());
+    }
 
-        //при вызове jwtTokenUtils.getUsernameFromToken(token.substring(7))) возвращаем .willReturn(OWNER);
-        given(jwtTokenUtils.getUsernameFromToken(token.substring(7))).willReturn(OWNER);
+
+    @Test
+    void deleteFileTest() throws IOException {
+        given(fileRepository.findRefsByOwnerAndFilenameIn(OWNER, List.of(FILENAME))).willReturn(List.of(new FileRef(1L, CONTENT_HASH, 7L)));
 
         //удаляем файл
-        storageService.deleteFile(token, FILENAME);
+        storageService.deleteFile(OWNER, FILENAME);
+
+        //строка удаляется запросом по id, сущность File не загружается
+        verify(fileRepository, times(1)).deleteByIds(List.of(1L));
+        //и ссылка на содержимое освобождена
+        verify(blobService, times(1)).releaseAll(List.of(CONTENT_HASH));
+        //список файлов изменился - версия списка увеличена
+        verify(userRepository, times(1)).recordFilesChange(OWNER, -7L);
+    }
+
+    @Test
+    void deleteMissingFileTest() throws IOException {
+        given(fileRepository.findRefsByOwnerAndFilenameIn(OWNER, List.of(FILENAME))).willReturn(List.of());
+
+        storageService.deleteFile(OWNER, FILENAME);
 
-        //проверяем сколько раз был вызван removeByFilenameAndOwner(FILENAME, OWNER);
-        verify(fileRepository, times(1)).removeByFilenameAndOwner(FILENAME, OWNER);
+        //ничего не удалено - версия списка прежняя
+        verify(userRepository, never()).recordFilesChange(eq(OWNER), anyLong());
+    }
+
+    @Test
+    void deleteFilesByPrefixTest() throws IOException {
+        //два файла с одним содержимым: освобождаются обе ссылки
+        given(fileRepository.findRefsByOwnerAndPrefix(OWNER, "docs/", "docs/%"))
+                .willReturn(List.of(new FileRef(1L, CONTENT_HASH, 7L), new FileRef(2L, CONTENT_HASH, 7L)));
+
+        assertEquals(2, storageService.deleteFilesByPrefix(OWNER, "docs/"));
+
+        verify(fileRepository, times(1)).deleteByIds(List.of(1L, 2L));
+        verify(blobService, times(1)).releaseAll(List.of(CONTENT_HASH, CONTENT_HASH));
+        verify(userRepository, times(1)).recordFilesChange(OWNER, -14L);
+    }
+
+    @Test
+    void likePrefixTest() {
+        //символы шаблона LIKE в префиксе совпадают только сами с собой
+        assertEquals("50!%!_off!_!!/%", StorageService.likePrefix("50%_off_!/"));
+        assertEquals("docs/%", StorageService.likePrefix("docs/"));
+    }
+
+    @Test
+    void getFilesVersionTest() {
+        given(userRepository.getFilesVersion(OWNER)).willReturn(3L);
+
+        assertEquals(3L, storageService.getFilesVersion(OWNER));
     }
 
     @Test
     void downloadFileTest() {
-        String token = UUID.randomUUID().toString();
         file.setFilename(FILENAME);
 
-        given(jwtTokenUtils.getUsernameFromToken(token.substring(7))).willReturn(OWNER);
         given(fileRepository.findByFilenameAndOwner(FILENAME, OWNER)).willReturn(file);
 
-        File newFile = storageService.downloadFile(token, FILENAME);
+        File newFile = storageService.downloadFile(OWNER, FILENAME);
 
         assertEquals(file.getFilename(), newFile.getFilename());
     }
 
     @Test
-    void renameFileTest() {
-        String token = UUID.randomUUID().toString();
+    void writeFileContentTest() throws IOException {
+        file.setContentHash(CONTENT_HASH);
+        //файл больше downloadCache.maxEntrySize - в кэш не кладется
+        file.setSize(1000L);
+        OutputStream out = new ByteArrayOutputStream();
+
+        storageService.writeFileContent(file, 10, 20, out);
 
-        given(jwtTokenUtils.getUsernameFromToken(token.substring(7))).willReturn(OWNER);
+        //из хранилища запрашивается только нужный диапазон содержимого по хэшу из метаданных
+        verify(blobService, times(1)).transferTo(CONTENT_HASH, 10, 20, out);
+    }
+
+    @Test
+    void writeArchiveTest() throws IOException {
+        File text = new File("a.txt", "text/plain", 5L, "hashA", OWNER);
+        File image = new File("b.png", "image/png", 3L, "hashB", OWNER);
+        willAnswer(invocation -> {
+            invocation.getArgument(3, OutputStream.class).write("hello".getBytes());
+            return null;
+        }).given(blobService).transferTo(eq("hashA"), eq(0L), eq(5L), any(OutputStream.class));
+        willAnswer(invocation -> {
+            invocation.getArgument(3, OutputStream.class).write("png".getBytes());
+            return null;
+        }).given(blobService).transferTo(eq("hashB"), eq(0L), eq(3L), any(OutputStream.class));
+        given(compressionPolicy.isPrecompressed("text/plain")).willReturn(false);
+        given(compressionPolicy.isPrecompressed("image/png")).willReturn(true);
 
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //повторное имя в архив второй раз не попадает
+        storageService.writeArchive(List.of(text, image, text), out);
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals("a.txt", zip.getNextEntry().getName());
+            assertEquals("hello", new String(zip.readAllBytes()));
+            assertEquals("b.png", zip.getNextEntry().getName());
+            assertEquals("png", new String(zip.readAllBytes()));
+            assertNull(zip.getNextEntry());
+        }
+    }
+
+    @Test
+    void getFilesByNameTest() {
+        File a = new File("a.txt", "text/plain", 5L, "hashA", OWNER);
+        given(fileRepository.findByOwnerAndFilenameIn(OWNER, List.of("a.txt", "missing"))).willReturn(List.of(a));
+
+        //все имена должны существовать, иначе архив не начинается
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> storageService.getFilesByName(OWNER, List.of("a.txt", "missing")));
+        assertEquals(HttpStatus.NOT_FOUND, ex.getStatus());
+    }
+
+    @Test
+    void writeCachedFileContentTest() throws IOException {
+        file.setContentHash(CONTENT_HASH);
+        file.setSize(5L);
+        willAnswer(invocation -> {
+            invocation.getArgument(3, OutputStream.class).write("hello".getBytes());
+            return null;
+        }).given(blobService).transferTo(eq(CONTENT_HASH), eq(0L), eq(5L), any(OutputStream.class));
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        storageService.writeFileContent(file, 0, 5, first);
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        storageService.writeFileContent(file, 1, 3, range);
+
+        assertEquals("hello", first.toString());
+        assertEquals("ell", range.toString());
+        //небольшой файл читается из хранилища целиком один раз, дальше отдается из кэша
+        verify(blobService, times(1)).transferTo(eq(CONTENT_HASH), eq(0L), eq(5L), any(OutputStream.class));
+    }
+
+    @Test
+    void downloadFileCachedUntilRenameTest() {
+        given(fileRepository.findByFilenameAndOwner(FILENAME, OWNER)).willReturn(file);
+        given(fileRepository.renameFile(FILENAME, "newName", OWNER)).willReturn(1);
+
+        storageService.downloadFile(OWNER, FILENAME);
+        storageService.downloadFile(OWNER, FILENAME);
+        verify(fileRepository, times(1)).findByFilenameAndOwner(FILENAME, OWNER);
+
+        //после переименования старое имя снова ищется в базе
+        storageService.renameFile(OWNER, FILENAME, "newName");
+        storageService.downloadFile(OWNER, FILENAME);
+        verify(fileRepository, times(2)).findByFilenameAndOwner(FILENAME, OWNER);
+    }
+
+    @Test
+    void renameFileTest() {
         //инициируем переименование
-        storageService.renameFile(token, FILENAME, FILENAME);
+        storageService.renameFile(OWNER, FILENAME, FILENAME);
 
         //и смотрим склько раз был вызван тот или иной метод
         verify(fileRepository, times(1)).renameFile(FILENAME, FILENAME, OWNER);
     }
-}
\ No newline at end of file
+
+    @Test
+    void renameFileChangesVersionTest() {
+        given(fileRepository.renameFile(FILENAME, "newName", OWNER)).willReturn(1);
+
+        storageService.renameFile(OWNER, FILENAME, "newName");
+
+        verify(userRepository, times(1)).incrementFilesVersion(OWNER);
+    }
+
+    @Test
+    void renameFilesByPrefixTest() {
+        given(fileRepository.renameByPrefix(OWNER, "old/", "old/%", "new/", 5)).willReturn(3);
+
+        assertEquals(3, storageService.renameFilesByPrefix(OWNER, "old/", "new/"));
+
+        verify(userRepository, times(1)).incrementFilesVersion(OWNER);
+    }
+
+    @Test
+    void searchFilesTest() {
+        given(fileRepository.findAllFilesByOwner(OWNER)).willReturn(List.of(
+                new FileResponse(1L, "Report-2023.pdf", 10L), new FileResponse(2L, "photo.jpg", 20L)));
+        given(fileRepository.findFilesByOwnerAndFilename(OWNER, "photo.jpg")).willReturn(List.of(new FileResponse(2L, "photo.jpg", 20L)));
+        given(fileRepository.renameFile("photo.jpg", "report-draft.jpg", OWNER)).willReturn(1);
+
+        assertEquals(List.of("Report-2023.pdf"), filenames(storageService.searchFiles(OWNER, "report", false, 10)));
+
+        //переименование попадает в индекс без повторного чтения файлов из базы
+        storageService.renameFile(OWNER, "photo.jpg", "report-draft.jpg");
+        assertEquals(List.of("Report-2023.pdf", "report-draft.jpg"), filenames(storageService.searchFiles(OWNER, "rep", true, 10)));
+        verify(fileRepository, times(1)).findAllFilesByOwner(OWNER);
+    }
+
+    @Test
+    void searchFilesAfterPrefixRenameTest() {
+        given(fileRepository.findAllFilesByOwner(OWNER)).willReturn(List.of(
+                new FileResponse(1L, "old/a.txt", 10L), new FileResponse(2L, "old/b.txt", 20L)));
+        given(fileRepository.findFilesByOwnerAndPrefix(OWNER, "old/", "old/%")).willReturn(List.of(
+                new FileResponse(1L, "old/a.txt", 10L), new FileResponse(2L, "old/b.txt", 20L)));
+        given(fileRepository.renameByPrefix(OWNER, "old/", "old/%", "new/", 5)).willReturn(2);
+        storageService.searchFiles(OWNER, "old", true, 10);
+
+        storageService.renameFilesByPrefix(OWNER, "old/", "new/");
+
+        //индекс меняет именно те строки, которые выбрал update
+        assertEquals(List.of("new/a.txt", "new/b.txt"), filenames(storageService.searchFiles(OWNER, "new/", true, 10)));
+        assertTrue(storageService.searchFiles(OWNER, "old/", true, 10).isEmpty());
+    }
+
+    @Test
+    void searchFilesZeroLimitTest() {
+        assertTrue(storageService.searchFiles(OWNER, "report", false, 0).isEmpty());
+
+        verify(fileRepository, never()).findAllFilesByOwner(any());
+    }
+
+    private static List<String> filenames(List<FileResponse> files) {
+        return files.stream().map(FileResponse::getFilename).collect(Collectors.toList());
+    }
+}
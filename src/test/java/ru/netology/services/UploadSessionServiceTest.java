@@ -0,0 +1,267 @@
+package ru.netology.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.server.ResponseStatusException;
+import ru.netology.admission.QuotaExceededException;
+import ru.netology.admission.StorageQuota;
+import ru.netology.dto.UploadSessionResponse;
+import ru.netology.entities.UploadChunk;
+import ru.netology.entities.UploadSession;
+import ru.netology.repositories.UploadChunkRepository;
+import ru.netology.repositories.UploadSessionRepository;
+import ru.netology.storage.BlobStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UploadSessionServiceTest {
+    @InjectMocks
+    private UploadSessionService uploadSessionService;
+    @Mock
+    private UploadSessionRepository sessionRepository;
+    @Mock
+    private UploadChunkRepository chunkRepository;
+    @Mock
+    private BlobStore blobStore;
+    @Mock
+    private StorageService storageService;
+    @Mock
+    private StorageQuota storageQuota;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    private final String OWNER = "user";
+    private final String ID = "session";
+    //файл "hello world" из трех частей по 4 байта: 4 + 4 + 3
+    private final UploadSession session = new UploadSession(ID, OWNER, "hello.txt", "text/plain", 11L, 4, Instant.now());
+
+    @BeforeEach
+    void setUp() {
+        //@Value в юнит-тесте не подставляется, поэтому настройки задаем сами
+        ReflectionTestUtils.setField(uploadSessionService, "defaultChunkSize", 4);
+        ReflectionTestUtils.setField(uploadSessionService, "maxChunkSize", 8);
+        ReflectionTestUtils.setField(uploadSessionService, "sessionTtl", Duration.ofHours(1));
+    }
+
+    @Test
+    void openSessionTest() {
+        UploadSessionResponse response = uploadSessionService.openSession(OWNER, "hello.txt", "text/plain", 11L, null);
+
+        assertEquals(4, response.getChunkSize());
+        assertTrue(response.getReceivedChunks().isEmpty());
+        verify(sessionRepository, times(1)).save(any(UploadSession.class));
+    }
+
+    @Test
+    void openSessionRejectsTooLargeChunkTest() {
+        assertThrows(ResponseStatusException.class,
+                () -> uploadSessionService.openSession(OWNER, "hello.txt", "text/plain", 11L, 9));
+    }
+
+    @Test
+    void openSessionOverQuotaTest() {
+        willThrow(new QuotaExceededException(10L)).given(storageQuota).check(OWNER, 11L);
+
+        //сессия для файла больше квоты не открывается, части клиент прислать не успеет
+        assertThrows(QuotaExceededException.class,
+                () -> uploadSessionService.openSession(OWNER, "hello.txt", "text/plain", 11L, null));
+        verify(sessionRepository, never()).save(any(UploadSession.class));
+    }
+
+    @Test
+    void putChunkTest() throws IOException {
+        UploadSession stale = staleSession();
+        given(sessionRepository.findByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(stale));
+        given(chunkRepository.findBySessionIdAndChunkIndex(ID, 2)).willReturn(Optional.empty());
+        given(blobStore.put(any(InputStream.class), eq(3L))).willReturn("key2");
+
+        uploadSessionService.putChunk(OWNER, ID, 2, 3L, stream("rld"));
+
+        ArgumentCaptor<UploadChunk> captor = ArgumentCaptor.forClass(UploadChunk.class);
+        verify(chunkRepository, times(1)).saveAndFlush(captor.capture());
+        assertEquals(2, captor.getValue().getChunkIndex());
+        assertEquals("key2", captor.getValue().getBlobKey());
+        //время активности меняется у сессии, заблокированной в транзакции части, а не сохраняется заново
+        assertTrue(stale.getUpdatedAt().isAfter(Instant.now().minusSeconds(60)));
+        verify(sessionRepository, never()).save(any(UploadSession.class));
+    }
+
+    @Test
+    void putChunkSessionGoneTest() throws IOException {
+        //пока часть писалась, сессию собрали или удалили
+        given(sessionRepository.findByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.empty());
+        given(blobStore.put(any(InputStream.class), eq(3L))).willReturn("key2");
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> uploadSessionService.putChunk(OWNER, ID, 2, 3L, stream("rld")));
+
+        assertEquals(HttpStatus.NOT_FOUND, ex.getStatus());
+        //записанное содержимое части удалено
+        verify(blobStore, times(1)).delete("key2");
+        verify(chunkRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void putChunkConcurrentDuplicateTest() throws IOException {
+        given(sessionRepository.findByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(chunkRepository.findBySessionIdAndChunkIndex(ID, 2)).willReturn(Optional.empty());
+        given(blobStore.put(any(InputStream.class), eq(3L))).willReturn("key2");
+        given(chunkRepository.saveAndFlush(any(UploadChunk.class))).willThrow(new DataIntegrityViolationException("upload_chunks_session_index_uq"));
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> uploadSessionService.putChunk(OWNER, ID, 2, 3L, stream("rld")));
+
+        //та же часть пришла одновременно: 409, а не 500, и своя копия содержимого удалена
+        assertEquals(HttpStatus.CONFLICT, ex.getStatus());
+        verify(blobStore, times(1)).delete("key2");
+    }
+
+    @Test
+    void putChunkSpooledTest() throws IOException {
+        given(sessionRepository.findByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(chunkRepository.findBySessionIdAndChunkIndex(ID, 2)).willReturn(Optional.empty());
+        given(blobStore.writesInTransaction()).willReturn(true);
+        InputStream request = stream("rld");
+        //к моменту записи в хранилище тело запроса уже прочитано целиком, а хранилище читает копию
+        given(blobStore.put(any(InputStream.class), eq(3L))).willAnswer(invocation -> {
+            InputStream spooled = invocation.getArgument(0);
+            assertNotSame(request, spooled);
+            assertEquals(0, request.available());
+            assertEquals("rld", new String(spooled.readAllBytes(), StandardCharsets.UTF_8));
+            return "key2";
+        });
+
+        uploadSessionService.putChunk(OWNER, ID, 2, 3L, request);
+
+        verify(blobStore, times(1)).put(any(InputStream.class), eq(3L));
+        verify(chunkRepository, times(1)).saveAndFlush(any(UploadChunk.class));
+    }
+
+    @Test
+    void putChunkWrongSizeTest() throws IOException {
+        given(sessionRepository.findByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+
+        //последняя часть должна быть 3 байта
+        assertThrows(ResponseStatusException.class, () -> uploadSessionService.putChunk(OWNER, ID, 2, 4L, stream("rld!")));
+        verify(blobStore, never()).put(any(InputStream.class), anyLong());
+    }
+
+    @Test
+    void putChunkReplacesPreviousTest() throws IOException {
+        given(sessionRepository.findByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(chunkRepository.findBySessionIdAndChunkIndex(ID, 0))
+                .willReturn(Optional.of(new UploadChunk(ID, 0, "old", 4L)));
+        given(blobStore.put(any(InputStream.class), eq(4L))).willReturn("new");
+
+        uploadSessionService.putChunk(OWNER, ID, 0, 4L, stream("hell"));
+
+        verify(blobStore, times(1)).delete("old");
+    }
+
+    @Test
+    void commitIncompleteTest() throws IOException {
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(chunkRepository.findBySessionIdOrderByChunkIndex(ID))
+                .willReturn(List.of(new UploadChunk(ID, 0, "key0", 4L)));
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class, () -> uploadSessionService.commit(OWNER, ID));
+        assertEquals(HttpStatus.CONFLICT, ex.getStatus());
+        verify(storageService, never()).uploadFile(anyString(), anyString(), anyString(), anyLong(), any());
+    }
+
+    @Test
+    void commitTest() throws IOException {
+        List<UploadChunk> chunks = List.of(new UploadChunk(ID, 0, "key0", 4L),
+                new UploadChunk(ID, 1, "key1", 4L), new UploadChunk(ID, 2, "key2", 3L));
+        //сессия блокируется: части, пришедшие во время сборки, ждут и получают 404
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+        given(chunkRepository.findBySessionIdOrderByChunkIndex(ID)).willReturn(chunks);
+        given(blobStore.open("key0")).willReturn(stream("hell"));
+        given(blobStore.open("key1")).willReturn(stream("o wo"));
+        given(blobStore.open("key2")).willReturn(stream("rld"));
+
+        uploadSessionService.commit(OWNER, ID);
+
+        //части склеены в один поток по порядку номеров
+        ArgumentCaptor<InputStreamSource> captor = ArgumentCaptor.forClass(InputStreamSource.class);
+        verify(storageService, times(1)).uploadFile(eq(OWNER), eq("hello.txt"), eq("text/plain"), eq(11L), captor.capture());
+        try (InputStream in = captor.getValue().getInputStream()) {
+            assertEquals("hello world", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        //после сборки части и сессия удалены
+        verify(blobStore, times(1)).delete("key0");
+        verify(blobStore, times(1)).delete("key1");
+        verify(blobStore, times(1)).delete("key2");
+        verify(sessionRepository, times(1)).delete(session);
+    }
+
+    @Test
+    void unknownSessionTest() {
+        given(sessionRepository.findByIdAndOwner(ID, "other")).willReturn(Optional.empty());
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class, () -> uploadSessionService.getSession("other", ID));
+        assertEquals(HttpStatus.NOT_FOUND, ex.getStatus());
+    }
+
+    @Test
+    void removeStaleSessionsTest() throws IOException {
+        UploadSession stale = staleSession();
+        given(sessionRepository.findByUpdatedAtBefore(any(Instant.class))).willReturn(List.of(stale));
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(stale));
+        given(chunkRepository.findBySessionIdOrderByChunkIndex(ID))
+                .willReturn(List.of(new UploadChunk(ID, 0, "key0", 4L)));
+
+        assertEquals(1, uploadSessionService.removeStaleSessions());
+        verify(blobStore, times(1)).delete("key0");
+        verify(sessionRepository, times(1)).delete(stale);
+    }
+
+    @Test
+    void removeRevivedSessionTest() throws IOException {
+        //сессия была брошенной при выборке, но до блокировки в нее пришла часть
+        given(sessionRepository.findByUpdatedAtBefore(any(Instant.class))).willReturn(List.of(staleSession()));
+        given(sessionRepository.findLockedByIdAndOwner(ID, OWNER)).willReturn(Optional.of(session));
+
+        assertEquals(0, uploadSessionService.removeStaleSessions());
+        verify(sessionRepository, never()).delete(any(UploadSession.class));
+    }
+
+    private UploadSession staleSession() {
+        return new UploadSession(ID, OWNER, "hello.txt", "text/plain", 11L, 4, Instant.now().minus(Duration.ofDays(1)));
+    }
+
+    private InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
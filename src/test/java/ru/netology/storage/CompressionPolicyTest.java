@@ -0,0 +1,89 @@
+package ru.netology.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionPolicyTest {
+    private final CompressionPolicy policy = new CompressionPolicy(true, 16, 4096, 1024, 0.9);
+    private final byte[] text = "id,name,size\n1,report.csv,100\n2,report.csv,200\n3,report.csv,300\n".repeat(10)
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void chooseByTypeTest() {
+        assertEquals(ContentCodec.ZSTD, policy.codecForType("text/csv; charset=UTF-8"));
+        assertEquals(ContentCodec.ZSTD, policy.codecForType("application/json"));
+        assertEquals(ContentCodec.ZSTD, policy.codecForType("image/svg+xml"));
+        assertEquals(ContentCodec.LZ4, policy.codecForType("application/octet-stream"));
+        assertEquals(ContentCodec.LZ4, policy.codecForType(null));
+        //уже сжатые форматы повторно не сжимаются
+        assertNull(policy.codecForType("image/jpeg"));
+        assertNull(policy.codecForType("application/zip"));
+    }
+
+    @Test
+    void chooseBySampleTest() {
+        assertEquals(ContentCodec.ZSTD, policy.choose("text/csv", text.length, text, text.length));
+        //случайные байты не сжимаются - храним как есть, даже если тип текстовый
+        byte[] random = new byte[1024];
+        new Random(1).nextBytes(random);
+        assertNull(policy.choose("text/plain", random.length, random, random.length));
+    }
+
+    @Test
+    void smallOrDisabledTest() {
+        assertNull(policy.choose("text/csv", 10, text, 10));
+        CompressionPolicy disabled = new CompressionPolicy(false, 16, 4096, 1024, 0.9);
+        assertEquals(0, disabled.getSampleSize());
+        assertNull(disabled.choose("text/csv", text.length, text, text.length));
+    }
+
+    @Test
+    void largeTest() {
+        //большой файл хранится без сжатия, даже если образец хорошо сжимается
+        assertNull(policy.choose("text/csv", 4097, text, text.length));
+        assertEquals(ContentCodec.ZSTD, policy.choose("text/csv", 4096, text, text.length));
+    }
+
+    @Test
+    void compressingInputStreamTest() throws IOException {
+        for (ContentCodec codec : ContentCodec.values()) {
+            //маленький буфер, чтобы сжатие шло многими порциями
+            CompressingInputStream compressed = new CompressingInputStream(new ByteArrayInputStream(text), codec, 7);
+            byte[] stored = compressed.readAllBytes();
+            assertEquals(stored.length, compressed.getCompressedSize());
+            assertTrue(stored.length < text.length);
+            try (InputStream in = codec.decompress(new ByteArrayInputStream(stored))) {
+                assertArrayEquals(text, in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void closeUnfinishedTest() throws IOException {
+        for (ContentCodec codec : ContentCodec.values()) {
+            boolean[] sourceClosed = {false};
+            InputStream source = new ByteArrayInputStream(text) {
+                @Override
+                public void close() {
+                    sourceClosed[0] = true;
+                }
+            };
+            CompressingInputStream compressed = new CompressingInputStream(source, codec, 7);
+            compressed.read(new byte[4]);
+
+            //чтение брошено на середине: close закрывает и компрессор, и источник, дальше поток пуст
+            compressed.close();
+            compressed.close();
+
+            assertTrue(sourceClosed[0]);
+            assertEquals(-1, compressed.read());
+        }
+    }
+}
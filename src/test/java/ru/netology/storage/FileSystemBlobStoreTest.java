@@ -0,0 +1,61 @@
+package ru.netology.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemBlobStoreTest {
+    //@TempDir JUnit создает временный каталог перед тестом и удаляет его после
+    @TempDir
+    Path root;
+    private final byte[] content = UUID.randomUUID().toString().getBytes();
+
+    @Test
+    void putAndReadTest() throws IOException {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(root);
+
+        String key = blobStore.put(new ByteArrayInputStream(content), content.length);
+
+        //файл лежит в шардированном каталоге root/ab/cd/key
+        Path path = blobStore.resolve(key);
+        assertEquals(root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)), path.getParent());
+        try (InputStream in = blobStore.open(key)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        blobStore.transferTo(key, 0, content.length, out);
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    void transferRangeTest() throws IOException {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(root);
+        String key = blobStore.put(new ByteArrayInputStream(content), content.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        blobStore.transferTo(key, 5, 10, out);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 5, 15), out.toByteArray());
+    }
+
+    @Test
+    void deleteTest() throws IOException {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(root);
+        String key = blobStore.put(new ByteArrayInputStream(content), content.length);
+
+        //вне транзакции файл удаляется сразу
+        blobStore.delete(key);
+
+        assertFalse(Files.exists(blobStore.resolve(key)));
+    }
+}
@@ -0,0 +1,48 @@
+package ru.netology.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.netology.repositories.FileContentRepository;
+
+import java.util.List;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class PostgresBlobStoreTest {
+    @InjectMocks
+    private PostgresBlobStore blobStore;
+    @Mock
+    FileContentRepository fileContentRepository;
+
+    @Test
+    void deleteUnlinksLargeObjectTest() {
+        blobStore.delete("7");
+
+        //сначала освобождается large object, потом удаляется строка, которая на него ссылается
+        InOrder order = inOrder(fileContentRepository);
+        order.verify(fileContentRepository).unlinkData(List.of(7L));
+        order.verify(fileContentRepository).deleteAllByIdInBatch(List.of(7L));
+    }
+
+    @Test
+    void deleteAllUnlinksLargeObjectsTest() {
+        blobStore.deleteAll(List.of("1", "2", "3"));
+
+        InOrder order = inOrder(fileContentRepository);
+        order.verify(fileContentRepository).unlinkData(List.of(1L, 2L, 3L));
+        order.verify(fileContentRepository).deleteAllByIdInBatch(List.of(1L, 2L, 3L));
+    }
+
+    @Test
+    void deleteNothingTest() {
+        blobStore.deleteAll(List.of());
+
+        verifyNoInteractions(fileContentRepository);
+    }
+}